@@ -0,0 +1,175 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+
+import static java.lang.System.out;
+import static java.math.RoundingMode.HALF_UP;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Measures the arithmetic operations most used on ledger amounts, on operands that are compact
+ * (unscaled value far from the limits of a long), near {@link Long#MAX_VALUE} (so the result may
+ * no longer fit in a long) and already inflated (unscaled value bigger than a long).
+ * <p>
+ * Run it with {@link #main}, to see the allocation per operation, and the table of operations
+ * which silently inflate their result, which are the ones to avoid or rewrite.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class BigDecimalArithmeticBenchmark {
+
+    private static final int SIZE = 1024;
+
+    @State(Scope.Thread)
+    public static class MyState {
+        @Param({"compact", "near_max_in_long", "inflated"})
+        String operands = "compact";
+        int scale = 2;
+
+        // many different operands, so that the operations don't see the same values over and over; the precision
+        // cached inside each decimal is still computed once per iteration and then reused, as for long-lived amounts
+        BigDecimal[] left = new BigDecimal[SIZE];
+        BigDecimal[] right = new BigDecimal[SIZE];
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            Random random = new Random(0);
+            for (int i = 0; i < SIZE; i++) {
+                left[i] = operand(operands, scale, random);
+                right[i] = operand(operands, scale, random);
+            }
+        }
+    }
+
+    static BigDecimal operand(String operands, int scale, Random random) {
+        // trailing zero in each, so that stripTrailingZeros has something to do
+        long unscaledValue = (1 + random.nextInt(99_999)) * 10L;
+        return switch (operands) {
+            case "compact" -> BigDecimal.valueOf(unscaledValue, scale);
+            case "near_max_in_long" -> BigDecimal.valueOf(Long.MAX_VALUE / 10 * 10 - unscaledValue, scale);
+            case "inflated" -> new BigDecimal(BigInteger.valueOf(unscaledValue).shiftLeft(64), scale);
+            default -> throw new IllegalArgumentException("unknown operands " + operands);
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void add(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].add(state.right[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void multiply(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].multiply(state.right[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void set_scale(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].setScale(state.scale + 2, HALF_UP));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void compare_to(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].compareTo(state.right[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void strip_trailing_zeros(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].stripTrailingZeros());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void hash_code(MyState state, Blackhole bh) throws InterruptedException {
+        for (int i = 0; i < SIZE; i++) {
+            bh.consume(state.left[i].hashCode());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        printInflatedResults();
+        Options opt = new OptionsBuilder()
+                .include(BigDecimalArithmeticBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+
+    /**
+     * Prints, for each operation returning a decimal, how many of its results are inflated,
+     * that is, keep their unscaled value in a separate BigInteger object.
+     */
+    private static void printInflatedResults() {
+        String[] allOperands = {"compact", "near_max_in_long", "inflated"};
+        VM.current(); // initialize it before printing, as it prints warnings
+        out.printf("%-22s", "inflated results");
+        for (String operands : allOperands) {
+            out.printf("%20s", operands);
+        }
+        out.println();
+        printInflatedResults("add", allOperands, BigDecimal::add);
+        printInflatedResults("multiply", allOperands, BigDecimal::multiply);
+        printInflatedResults("set_scale", allOperands, (left, right) -> left.setScale(left.scale() + 2, HALF_UP));
+        printInflatedResults("strip_trailing_zeros", allOperands, (left, right) -> left.stripTrailingZeros());
+        out.println();
+    }
+
+    private static void printInflatedResults(String operation, String[] allOperands, BinaryOperator<BigDecimal> operator) {
+        out.printf("%-22s", operation);
+        for (String operands : allOperands) {
+            Random random = new Random(0);
+            int inflated = 0;
+            int samples = 100;
+            for (int i = 0; i < samples; i++) {
+                BigDecimal result = operator.apply(operand(operands, 2, random), operand(operands, 2, random));
+                if (GraphLayout.parseInstance(result).totalCount() > 1) { // more than just the BigDecimal
+                    inflated++;
+                }
+            }
+            out.printf("%19d%%", inflated * 100 / samples);
+        }
+        out.println();
+    }
+}
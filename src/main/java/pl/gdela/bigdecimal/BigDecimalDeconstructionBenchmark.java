@@ -85,4 +85,23 @@ public class BigDecimalDeconstructionBenchmark {
         }
         return unscaledLong;
     }
+
+    @Benchmark
+    public long using_introspection_public(MyState state) throws InterruptedException {
+        long unscaledLong = 0;
+        for (int i = 0; i < state.decimals.length; i++) {
+            unscaledLong += DecimalIntrospection.unscaledLongPublic(state.decimals[i]); // inflated adds a dummy value
+        }
+        return unscaledLong;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.math=ALL-UNNAMED")
+    public long using_introspection_privileged(MyState state) throws InterruptedException {
+        long unscaledLong = 0;
+        for (int i = 0; i < state.decimals.length; i++) {
+            unscaledLong += DecimalIntrospection.unscaledLongPrivileged(state.decimals[i]); // inflated adds a dummy value
+        }
+        return unscaledLong;
+    }
 }
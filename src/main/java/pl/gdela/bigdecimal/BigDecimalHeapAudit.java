@@ -0,0 +1,318 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jol.vm.VM;
+import org.openjdk.jol.vm.VirtualMachine;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.System.out;
+
+/**
+ * Walks a graph of objects, for example a cache map, looking for BigDecimals that take more memory
+ * than needed: those that are inflated though their unscaled value fits in a long, and those that
+ * keep the string representation cached after being printed. Optionally replaces them with compact
+ * equivalents, see {@link #recompact}.
+ * <p>
+ * Unlike JOL's {@code GraphLayout}, which keeps a record for each object visited, the walk keeps
+ * only the objects that are yet to be visited, and a compact identity set of those that were,
+ * without descending into objects that cannot lead to a BigDecimal, like strings or primitive
+ * arrays. So it can be used on a graph of millions of objects without needing twice the heap.
+ * <p>
+ * Fields of JDK classes are read with the help of JOL, but replacing a decimal kept in such field
+ * (like a value in {@link HashMap}) requires the package to be opened, for example with
+ * {@code --add-opens java.base/java.util=ALL-UNNAMED}, otherwise it is counted as not replaceable.
+ * Decimals kept in arrays and in fields of application classes can always be replaced.
+ */
+class BigDecimalHeapAudit {
+
+    private static final VirtualMachine vm = VM.current();
+    private static final long INFLATED = Long.MIN_VALUE; // the value of BigDecimal.intCompact when it's inflated
+    private static final long intCompactOffset = fieldOffset(BigDecimal.class, "intCompact");
+    private static final long intValOffset = fieldOffset(BigDecimal.class, "intVal");
+    private static final long stringCacheOffset = fieldOffset(BigDecimal.class, "stringCache");
+    private static final long magOffset = fieldOffset(BigInteger.class, "mag");
+    private static final long valueOffset = fieldOffset(String.class, "value");
+    private static final Set<Class<?>> LEAF_CLASSES = Set.of(
+            String.class, BigInteger.class, Class.class, Boolean.class, Character.class,
+            Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class);
+
+    /**
+     * Summary of the audit.
+     *
+     * @param decimals number of distinct BigDecimal instances found
+     * @param inflatedFittingInLong number of those which are inflated, though their unscaled value fits in a long
+     * @param withStringCache number of those which keep their string representation cached
+     * @param reclaimableBytes bytes that would be freed by recompacting, an upper bound as some may be shared
+     * @param replaced number of references to wasteful decimals that were replaced with compact ones
+     * @param notReplaceable number of references to wasteful decimals that could not be replaced
+     */
+    record Report(long decimals, long inflatedFittingInLong, long withStringCache, long reclaimableBytes,
+                  long replaced, long notReplaceable) {
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d decimals, %d inflated though fit in long, %d with string cache, %d bytes reclaimable, %d replaced, %d not replaceable",
+                    decimals, inflatedFittingInLong, withStringCache, reclaimableBytes, replaced, notReplaceable);
+        }
+    }
+
+    private final boolean replace;
+    private final IdentitySet visited = new IdentitySet();
+    private final ArrayDeque<Object> toVisit = new ArrayDeque<>();
+    private final Map<Class<?>, List<Field>> referenceFields = new HashMap<>();
+    // each wasteful decimal is compacted once, so that references to the same one still share it
+    private final Map<BigDecimal, BigDecimal> replacements = new IdentityHashMap<>();
+
+    private long decimals;
+    private long inflatedFittingInLong;
+    private long withStringCache;
+    private long reclaimableBytes;
+    private long replaced;
+    private long notReplaceable;
+
+    private BigDecimalHeapAudit(boolean replace) {
+        this.replace = replace;
+    }
+
+    public static void main(String[] args) {
+        Map<Integer, BigDecimal> cache = new HashMap<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            BigDecimal decimal = BigDecimalSerializationBenchmark.serializeDeserializeClassic(BigDecimal.valueOf(i, 2));
+            if (i % 10 == 0) decimal.toString(); // as if it was printed to a log
+            cache.put(i, decimal);
+        }
+        out.println("audit:     " + audit(cache));
+        out.println("recompact: " + recompact(cache));
+        out.println("audit:     " + audit(cache));
+    }
+
+    /**
+     * Reports wasteful decimals reachable from given root, without changing anything.
+     */
+    static Report audit(Object root) {
+        return new BigDecimalHeapAudit(false).walk(root);
+    }
+
+    /**
+     * Reports wasteful decimals reachable from given root and replaces them with compact equivalents,
+     * which are equal to them. Must not be used while other threads are modifying the graph.
+     */
+    static Report recompact(Object root) {
+        return new BigDecimalHeapAudit(true).walk(root);
+    }
+
+    private Report walk(Object root) {
+        if (root instanceof BigDecimal decimal) {
+            inspect(decimal); // can't replace the root itself, but can audit it
+        } else if (root != null && mayLeadToDecimal(root.getClass())) {
+            visited.add(root);
+            toVisit.push(root);
+        }
+        while (!toVisit.isEmpty()) {
+            Object object = toVisit.pop();
+            if (object instanceof Object[] array) {
+                for (int i = 0; i < array.length; i++) {
+                    Object replacement = follow(array[i]);
+                    if (replacement != array[i]) {
+                        array[i] = replacement;
+                        replaced++;
+                    }
+                }
+            } else {
+                for (Field field : referenceFields(object.getClass())) {
+                    Object value = read(object, field);
+                    Object replacement = follow(value);
+                    if (replacement != value) {
+                        if (isWritable(object, field)) {
+                            write(object, field, replacement);
+                            replaced++;
+                        } else {
+                            notReplaceable++;
+                        }
+                    }
+                }
+            }
+        }
+        return new Report(decimals, inflatedFittingInLong, withStringCache, reclaimableBytes, replaced, notReplaceable);
+    }
+
+    /**
+     * Schedules given object to be visited, if not yet visited. Returns the object that should be
+     * referenced instead of the given one, which is the same object unless it's a wasteful decimal.
+     */
+    private Object follow(Object object) {
+        if (object == null) {
+            return null;
+        }
+        if (object instanceof BigDecimal decimal) {
+            if (visited.add(decimal)) {
+                inspect(decimal);
+                BigDecimal compacted = replace ? compacted(decimal) : decimal;
+                if (compacted != decimal) {
+                    replacements.put(decimal, compacted);
+                }
+            }
+            return replacements.getOrDefault(decimal, decimal);
+        }
+        if (mayLeadToDecimal(object.getClass()) && visited.add(object)) {
+            toVisit.push(object);
+        }
+        return object;
+    }
+
+    private void inspect(BigDecimal decimal) {
+        decimals++;
+        BigInteger intVal = (BigInteger) vm.getObject(decimal, intValOffset);
+        String stringCache = (String) vm.getObject(decimal, stringCacheOffset);
+        if (isInflatedFittingInLong(decimal)) {
+            inflatedFittingInLong++;
+            reclaimableBytes += vm.sizeOf(intVal) + vm.sizeOf(vm.getObject(intVal, magOffset));
+        }
+        if (stringCache != null) {
+            withStringCache++;
+            reclaimableBytes += vm.sizeOf(stringCache) + vm.sizeOf(vm.getObject(stringCache, valueOffset));
+        }
+    }
+
+    private static BigDecimal compacted(BigDecimal decimal) {
+        if (isInflatedFittingInLong(decimal)) {
+            return BigDecimal.valueOf(decimal.unscaledValue().longValue(), decimal.scale());
+        }
+        if (vm.getObject(decimal, stringCacheOffset) != null) {
+            long intCompact = vm.getLong(decimal, intCompactOffset);
+            return intCompact != INFLATED
+                    ? BigDecimal.valueOf(intCompact, decimal.scale())
+                    : new BigDecimal(decimal.unscaledValue(), decimal.scale()); // same BigInteger, just without string
+        }
+        return decimal;
+    }
+
+    private static boolean isInflatedFittingInLong(BigDecimal decimal) {
+        // decimal created from BigInteger keeps it, even if it has the same value in intCompact
+        BigInteger intVal = (BigInteger) vm.getObject(decimal, intValOffset);
+        if (intVal == null) {
+            return false;
+        }
+        // Long.MIN_VALUE fits, but would be inflated anyway, as BigDecimal uses it as the marker of inflation
+        if (intVal.bitLength() > 63 || intVal.longValue() == Long.MIN_VALUE) {
+            return false;
+        }
+        // zeros always keep BigInteger.ZERO, and constants like BigDecimal.TEN are shared, so they are no waste
+        return intVal.signum() != 0 && BigDecimal.valueOf(intVal.longValue(), decimal.scale()) != decimal;
+    }
+
+    /**
+     * Tells if objects of given class may reference a BigDecimal, directly or not. Must be quick,
+     * as it is called for each object reached, and must not say false when it's not sure.
+     */
+    private static boolean mayLeadToDecimal(Class<?> clazz) {
+        if (clazz.isArray()) {
+            return !clazz.getComponentType().isPrimitive();
+        }
+        return !LEAF_CLASSES.contains(clazz);
+    }
+
+    private List<Field> referenceFields(Class<?> clazz) {
+        return referenceFields.computeIfAbsent(clazz, c -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                for (Field field : k.getDeclaredFields()) {
+                    if (!field.getType().isPrimitive() && !Modifier.isStatic(field.getModifiers())) {
+                        field.trySetAccessible(); // will fail for JDK classes, unless their package is opened
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        });
+    }
+
+    private static boolean isWritable(Object object, Field field) {
+        boolean isFinal = Modifier.isFinal(field.getModifiers());
+        Class<?> clazz = field.getDeclaringClass();
+        // final fields can be written through reflection, but not the ones of records and hidden classes
+        return field.canAccess(object) && !(isFinal && (clazz.isRecord() || clazz.isHidden()));
+    }
+
+    private static Object read(Object object, Field field) {
+        try {
+            return field.canAccess(object) ? field.get(object) : vm.getObject(object, vm.fieldOffset(field));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(Object object, Field field, Object value) {
+        try {
+            field.set(object, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long fieldOffset(Class<?> clazz, String fieldName) {
+        try {
+            return vm.fieldOffset(clazz.getDeclaredField(fieldName));
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("internals of " + clazz + " are not as expected", e);
+        }
+    }
+
+    /**
+     * Set of objects compared by identity, using open addressing over a plain array, so that
+     * it takes just a few bytes per object, unlike {@link java.util.IdentityHashMap}'s entries.
+     */
+    private static class IdentitySet {
+        private Object[] table = new Object[1024];
+        private int size;
+
+        /**
+         * Adds object to the set, returns false if it was already there.
+         */
+        boolean add(Object object) {
+            int mask = table.length - 1;
+            int i = mix(System.identityHashCode(object)) & mask;
+            while (table[i] != null) {
+                if (table[i] == object) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = object;
+            if (++size > table.length / 2) {
+                resize();
+            }
+            return true;
+        }
+
+        private void resize() {
+            Object[] oldTable = table;
+            table = new Object[oldTable.length * 2];
+            int mask = table.length - 1;
+            for (Object object : oldTable) {
+                if (object != null) {
+                    int i = mix(System.identityHashCode(object)) & mask;
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = object;
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9; // identity hashes may be similar, spread them over the table
+            return h ^ (h >>> 16);
+        }
+    }
+}
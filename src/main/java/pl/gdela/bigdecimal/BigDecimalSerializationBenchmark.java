@@ -1,67 +1,151 @@
 package pl.gdela.bigdecimal;
 
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jol.info.GraphLayout;
+
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.List;
 
-import static java.lang.System.nanoTime;
-import static java.lang.System.out;
 import static java.math.BigDecimal.ONE;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.AuxCounters.Type.EVENTS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
 
 /**
  * Simulates different ways to serialize and deserialize a BigDecimal object. For simplicity,
  * we are not actually writing and reading bytes, but we deconstruct a BigDecimal into primitive
  * values (ints, bytes, longs) and then reconstruct new BigDecimal  from those primitive values,
  * so that it is equal to the original one.
+ * <p>
+ * Can't benchmark just one decimal million of times, because the call to precision() first time
+ * has different cost than calling second and next times, as the precision is remembered by
+ * BigDecimal. Realistic case for serialization and deserialization is that BigDecimal objects
+ * are many and different to each other, so each invocation goes through a million of fresh
+ * decimals, and the reported times are per one decimal. The decimals are created before each
+ * iteration, and each invocation replaces them with their deserialized copies, so the next
+ * invocation goes through fresh decimals again, without creating them in between.
+ * <p>
+ * Run with {@link #main} to have the {@link GCProfiler} attached, so that the allocation per
+ * decimal is reported next to the time, same as the size retained by deserialized decimals.
  */
-class BigDecimalSerializationBenchmark {
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class BigDecimalSerializationBenchmark {
 
-    public static void main(String[] args) {
-        for (int iterations = 0; iterations < 50; iterations++) {
-            measureSerialization();
-        }
-    }
+    private static final int RANGE_SIZE = 1_000_000;
+
+    @State(Scope.Thread)
+    @AuxCounters(EVENTS)
+    public static class MyState {
+        @Param({"noop", "classic", "optimized", "interned"})
+        String serde = "optimized";
+
+        @Param({"from_zero", "from_ten_million", "below_max_in_long", "above_max_in_long", "few_thousand_repeated"})
+        String range = "from_zero";
 
-    /*
-    Can't use JMH and benchmark just one decimal million of times, because the call to precision()
-    first time has different cost than calling second and next times, as the precision is remembered
-    by BigDecimal. Realistic case for serialization and deserialization is that BigDecimal objects
-    are many and different to each other.
-     */
-    private static void measureSerialization() {
-        int rangeSize = 1_000_000;
-        var rangeStarts = List.of(0L, 10_000_000L, Long.MAX_VALUE - rangeSize, Long.MAX_VALUE);
         int scale = 0; // this does not affect performance at all
 
-        BigDecimal[] decimals = new BigDecimal[rangeSize];
-        int blackhole = 0;
-        for (long rangeStart : rangeStarts) {
+        // many instances to avoid the effect of decimal.precision() caching
+        BigDecimal[] decimals = new BigDecimal[RANGE_SIZE];
+
+        // lives through the whole trial, so that it is warmed up like in a long-running application
+        DecimalInterner interner = new DecimalInterner(16_384);
+
+        /**
+         * Size in bytes that one deserialized decimal retains on the heap, reported as a secondary result.
+         */
+        public double retainedBytesPerDecimal;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            if (range.equals("few_thousand_repeated")) {
+                for (int i = 0; i < decimals.length; i++) {
+                    decimals[i] = BigDecimal.valueOf(10_000_000L + i % 5_000, scale); // equal, but not same instances
+                }
+                return;
+            }
+            long rangeStart = switch (range) {
+                case "from_zero" -> 0L;
+                case "from_ten_million" -> 10_000_000L;
+                case "below_max_in_long" -> Long.MAX_VALUE - RANGE_SIZE;
+                case "above_max_in_long" -> Long.MAX_VALUE;
+                default -> throw new IllegalArgumentException("unknown range " + range);
+            };
             BigDecimal current = BigDecimal.valueOf(rangeStart, scale);
             for (int i = 0; i < decimals.length; i++) {
                 decimals[i] = current;
                 current = current.add(ONE);
             }
-            long startTime = nanoTime();
-            for (int i = 0; i < decimals.length; i++) {
-                BigDecimal copy = serializeDeserializeNoop(decimals[i]);
-                //BigDecimal copy = serializeDeserializeClassic(decimals[i]);
-                //BigDecimal copy = serializeDeserializeOptimized(decimals[i]);
-                blackhole += copy.signum();
-                decimals[i] = copy;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(IterationParams iterationParams) {
+            // walking all million of decimals with JOL takes ages, and decimals in a range are alike anyway,
+            // so a sample is enough; each is passed as a separate root to not count in the array holding them
+            Object[] sample = new Object[1000];
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = decimals[i * (decimals.length / sample.length)];
             }
-            long stopTime = nanoTime();
-            out.printf(
-                    "- %3d ns/op average for %d decimals from %s to %s%n",
-                    (stopTime-startTime) / decimals.length, decimals.length, decimals[0], decimals[decimals.length-1]);
+            double retainedBytes = (double) GraphLayout.parseInstance(sample).totalSize() / sample.length;
+            // event counters are summed up across iterations, this makes the reported sum an average
+            retainedBytesPerDecimal = retainedBytes / iterationParams.getCount();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANGE_SIZE)
+    public int serialize_deserialize(MyState state) throws InterruptedException {
+        BigDecimal[] decimals = state.decimals;
+        int blackhole = 0;
+        for (int i = 0; i < decimals.length; i++) {
+            BigDecimal copy = switch (state.serde) {
+                case "noop" -> serializeDeserializeNoop(decimals[i]);
+                case "classic" -> serializeDeserializeClassic(decimals[i]);
+                case "optimized" -> serializeDeserializeOptimized(decimals[i], null);
+                case "interned" -> serializeDeserializeOptimized(decimals[i], state.interner);
+                default -> throw new IllegalArgumentException("unknown serde " + state.serde);
+            };
+            blackhole += copy.signum();
+            decimals[i] = copy;
         }
-        out.println("blackhole: " + blackhole);
+        return blackhole;
     }
 
-    private static BigDecimal serializeDeserializeNoop(BigDecimal decimal) {
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BigDecimalSerializationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+
+    static BigDecimal serializeDeserializeNoop(BigDecimal decimal) {
         return decimal; // no serialization/deserialization, just return same instance
     }
 
-    private static BigDecimal serializeDeserializeClassic(BigDecimal decimal) {
+    static BigDecimal serializeDeserializeClassic(BigDecimal decimal) {
         // serialization
         int scale = decimal.scale();
         byte[] unscaledValueBytes = decimal.unscaledValue().toByteArray();
@@ -70,7 +154,11 @@ class BigDecimalSerializationBenchmark {
         return new BigDecimal(unscaledValue, scale);
     }
 
-    private static BigDecimal serializeDeserializeOptimized(BigDecimal decimal) {
+    /**
+     * Optimized serialization and deserialization, that does not inflate the decimal. If interner is
+     * given, then decimals that fit in a long are taken from it instead of being created anew.
+     */
+    static BigDecimal serializeDeserializeOptimized(BigDecimal decimal, DecimalInterner interner) {
         // serialization
         int scale = decimal.scale();
         BigInteger unscaledBig = null; // avoid getting it from BigDecimal, as non-inflated BigDecimal will have to create it
@@ -90,7 +178,7 @@ class BigDecimalSerializationBenchmark {
         }
         // deserialization
         if (compactForm) {
-            return BigDecimal.valueOf(unscaledValueLong, scale);
+            return interner != null ? interner.intern(unscaledValueLong, scale) : BigDecimal.valueOf(unscaledValueLong, scale);
         } else {
             BigInteger unscaledValue = new BigInteger(unscaledValueBytes);
             return new BigDecimal(unscaledValue, scale);
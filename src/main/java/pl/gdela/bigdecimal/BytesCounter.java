@@ -0,0 +1,25 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static org.openjdk.jmh.annotations.AuxCounters.Type.OPERATIONS;
+
+/**
+ * Counts bytes processed by a benchmark, which adds to it on each call, so that besides calls per second
+ * the bytes per second are reported as a secondary result, comparable across sizes of the input.
+ */
+@State(Scope.Thread)
+@AuxCounters(OPERATIONS)
+public class BytesCounter {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        bytes = 0;
+    }
+}
@@ -0,0 +1,43 @@
+package pl.gdela.bigdecimal;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Splits range of chunks in halves until there is one chunk to process, so that chunks of a column
+ * or of a file are processed in parallel by the pool.
+ */
+class ChunksAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient IntConsumer chunkAction; // tasks are never serialized, so neither is the action
+    private final int fromChunk;
+    private final int toChunk;
+
+    private ChunksAction(IntConsumer chunkAction, int fromChunk, int toChunk) {
+        this.chunkAction = chunkAction;
+        this.fromChunk = fromChunk;
+        this.toChunk = toChunk;
+    }
+
+    /**
+     * Calls the action with each chunk index from 0 to numOfChunks - 1, in parallel, and returns when all are done.
+     */
+    static void inParallel(ForkJoinPool pool, int numOfChunks, IntConsumer chunkAction) {
+        if (numOfChunks > 0) {
+            pool.invoke(new ChunksAction(chunkAction, 0, numOfChunks));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (toChunk - fromChunk == 1) {
+            chunkAction.accept(fromChunk);
+        } else {
+            int middle = (fromChunk + toChunk) >>> 1;
+            invokeAll(new ChunksAction(chunkAction, fromChunk, middle), new ChunksAction(chunkAction, middle, toChunk));
+        }
+    }
+}
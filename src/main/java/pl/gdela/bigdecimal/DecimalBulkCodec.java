@@ -0,0 +1,209 @@
+package pl.gdela.bigdecimal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static pl.gdela.bigdecimal.ChunksAction.inParallel;
+import static pl.gdela.bigdecimal.DecimalIntrospection.fitsInLong;
+import static pl.gdela.bigdecimal.DecimalIntrospection.unscaledLong;
+
+/**
+ * Encodes whole arrays of decimals into a {@link ByteBuffer} and decodes them back, processing
+ * chunks of the array in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * The encoded form starts with the number of decimals, the chunk size and the offsets at which
+ * each chunk starts, followed by the chunks. Each decimal is a tag byte and the scale, followed
+ * either by unscaled value as long, if it fits in a long, or by length and bytes of the unscaled
+ * BigInteger otherwise. As the encoded decimals differ in size, encoding is done in two passes:
+ * first the sizes of all chunks are computed, then each chunk is written at its precomputed
+ * offset. Having the offsets in the header also allows decoding chunks in parallel.
+ * <p>
+ * Decoded decimals that fit in a long are always in the compact, non-inflated form.
+ */
+class DecimalBulkCodec {
+
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final byte COMPACT = 0;
+    private static final byte INFLATED = 1;
+    private static final int COMPACT_SIZE = 1 + 4 + 8;
+    private static final int INFLATED_HEADER_SIZE = 1 + 4 + 4;
+
+    private DecimalBulkCodec() {
+    }
+
+    // --- BigDecimal arrays ---
+
+    static ByteBuffer encode(BigDecimal[] decimals) {
+        return encode(decimals, ForkJoinPool.commonPool());
+    }
+
+    static ByteBuffer encode(BigDecimal[] decimals, ForkJoinPool pool) {
+        int numOfChunks = numOfChunks(decimals.length);
+        int[] chunkSizes = new int[numOfChunks];
+        inParallel(pool, numOfChunks, chunk -> {
+            int size = 0;
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, decimals.length); i++) {
+                size += encodedSize(decimals[i]);
+            }
+            chunkSizes[chunk] = size;
+        });
+        int[] chunkOffsets = offsets(chunkSizes);
+        ByteBuffer buffer = allocate(decimals.length, chunkOffsets);
+        inParallel(pool, numOfChunks, chunk -> {
+            ByteBuffer chunkBuffer = buffer.slice(chunkOffsets[chunk], chunkSizes[chunk]);
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, decimals.length); i++) {
+                encode(decimals[i], chunkBuffer);
+            }
+        });
+        return buffer;
+    }
+
+    static BigDecimal[] decode(ByteBuffer buffer) {
+        return decode(buffer, ForkJoinPool.commonPool());
+    }
+
+    static BigDecimal[] decode(ByteBuffer buffer, ForkJoinPool pool) {
+        int[] chunkOffsets = readHeader(buffer);
+        BigDecimal[] decimals = new BigDecimal[buffer.getInt(0)];
+        inParallel(pool, chunkOffsets.length - 1, chunk -> {
+            ByteBuffer chunkBuffer = buffer.slice(chunkOffsets[chunk], chunkOffsets[chunk + 1] - chunkOffsets[chunk]);
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, decimals.length); i++) {
+                decimals[i] = decodeDecimal(chunkBuffer);
+            }
+        });
+        return decimals;
+    }
+
+    static int encodedSize(BigDecimal decimal) {
+        return fitsInLong(unscaledLong(decimal), decimal) ? COMPACT_SIZE : INFLATED_HEADER_SIZE + decimal.unscaledValue().bitLength() / 8 + 1;
+    }
+
+    static void encode(BigDecimal decimal, ByteBuffer buffer) {
+        long unscaledValue = unscaledLong(decimal);
+        if (fitsInLong(unscaledValue, decimal)) {
+            buffer.put(COMPACT).putInt(decimal.scale()).putLong(unscaledValue);
+        } else {
+            byte[] unscaledBytes = decimal.unscaledValue().toByteArray();
+            buffer.put(INFLATED).putInt(decimal.scale()).putInt(unscaledBytes.length).put(unscaledBytes);
+        }
+    }
+
+    static BigDecimal decodeDecimal(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        int scale = buffer.getInt();
+        if (tag == COMPACT) {
+            return BigDecimal.valueOf(buffer.getLong(), scale);
+        } else {
+            byte[] unscaledBytes = new byte[buffer.getInt()];
+            buffer.get(unscaledBytes);
+            return new BigDecimal(new BigInteger(unscaledBytes), scale);
+        }
+    }
+
+    // --- primitive decimal columns ---
+
+    static ByteBuffer encode(DecimalColumn column) {
+        return encode(column, ForkJoinPool.commonPool());
+    }
+
+    static ByteBuffer encode(DecimalColumn column, ForkJoinPool pool) {
+        int numOfChunks = numOfChunks(column.size());
+        int[] chunkSizes = new int[numOfChunks];
+        for (int chunk = 0; chunk < numOfChunks; chunk++) {
+            chunkSizes[chunk] = (chunkEnd(chunk, column.size()) - chunkStart(chunk)) * COMPACT_SIZE; // all fit in a long
+        }
+        int[] chunkOffsets = offsets(chunkSizes);
+        ByteBuffer buffer = allocate(column.size(), chunkOffsets);
+        long[] unscaledValues = column.unscaledValues();
+        int[] scales = column.scales();
+        inParallel(pool, numOfChunks, chunk -> {
+            ByteBuffer chunkBuffer = buffer.slice(chunkOffsets[chunk], chunkSizes[chunk]);
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, column.size()); i++) {
+                chunkBuffer.put(COMPACT).putInt(scales[i]).putLong(unscaledValues[i]);
+            }
+        });
+        return buffer;
+    }
+
+    /**
+     * Decodes into a primitive column, throws {@link ArithmeticException} if any decimal doesn't fit in a long.
+     */
+    static DecimalColumn decodeColumn(ByteBuffer buffer) {
+        return decodeColumn(buffer, ForkJoinPool.commonPool());
+    }
+
+    static DecimalColumn decodeColumn(ByteBuffer buffer, ForkJoinPool pool) {
+        int[] chunkOffsets = readHeader(buffer);
+        var column = new DecimalColumn(buffer.getInt(0));
+        inParallel(pool, chunkOffsets.length - 1, chunk -> {
+            ByteBuffer chunkBuffer = buffer.slice(chunkOffsets[chunk], chunkOffsets[chunk + 1] - chunkOffsets[chunk]);
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, column.size()); i++) {
+                if (chunkBuffer.get() == COMPACT) {
+                    int scale = chunkBuffer.getInt();
+                    column.set(i, chunkBuffer.getLong(), scale);
+                } else {
+                    throw new ArithmeticException("decimal at " + i + " does not fit in a long");
+                }
+            }
+        });
+        return column;
+    }
+
+    // --- chunking ---
+
+    private static int numOfChunks(int numOfDecimals) {
+        return (numOfDecimals + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private static int chunkStart(int chunk) {
+        return chunk * CHUNK_SIZE;
+    }
+
+    private static int chunkEnd(int chunk, int numOfDecimals) {
+        return Math.min(numOfDecimals, (chunk + 1) * CHUNK_SIZE);
+    }
+
+    private static int headerSize(int numOfChunks) {
+        return 4 + 4 + 4 + (numOfChunks + 1) * 4;
+    }
+
+    /**
+     * Turns sizes of chunks into absolute offsets of the chunks in the buffer, with an extra one at
+     * the end, which is the size of the whole buffer.
+     */
+    private static int[] offsets(int[] chunkSizes) {
+        int[] offsets = new int[chunkSizes.length + 1];
+        long offset = headerSize(chunkSizes.length);
+        for (int chunk = 0; chunk < chunkSizes.length; chunk++) {
+            offsets[chunk] = (int) offset;
+            offset += chunkSizes[chunk];
+        }
+        checkArgument(offset <= Integer.MAX_VALUE, "encoded decimals take %s bytes, more than fits in ByteBuffer", offset);
+        offsets[chunkSizes.length] = (int) offset;
+        return offsets;
+    }
+
+    private static ByteBuffer allocate(int numOfDecimals, int[] chunkOffsets) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunkOffsets[chunkOffsets.length - 1]);
+        buffer.putInt(numOfDecimals).putInt(CHUNK_SIZE).putInt(chunkOffsets.length - 1);
+        for (int offset : chunkOffsets) {
+            buffer.putInt(offset);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int[] readHeader(ByteBuffer buffer) {
+        int chunkSize = buffer.getInt(4);
+        checkArgument(chunkSize == CHUNK_SIZE, "encoded with chunk size %s, but expected %s", chunkSize, CHUNK_SIZE);
+        int[] chunkOffsets = new int[buffer.getInt(8) + 1];
+        for (int chunk = 0; chunk < chunkOffsets.length; chunk++) {
+            chunkOffsets[chunk] = buffer.getInt(12 + chunk * 4);
+        }
+        return chunkOffsets;
+    }
+}
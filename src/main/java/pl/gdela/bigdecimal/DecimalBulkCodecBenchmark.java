@@ -0,0 +1,129 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+/**
+ * Compares encoding and decoding of a big array of decimals done with {@link DecimalBulkCodec}
+ * on pools of different parallelism against a plain single-threaded loop that walks the array.
+ * The number of encoded bytes processed is reported as a secondary result, in bytes per second.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8G")
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+public class DecimalBulkCodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"10000000"})
+        int numOfDecimals;
+
+        @Param({"1", "2", "4", "8"})
+        int parallelism;
+
+        BigDecimal[] decimals;
+        DecimalColumn column;
+        ByteBuffer encoded;
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(0);
+            decimals = new BigDecimal[numOfDecimals];
+            for (int i = 0; i < decimals.length; i++) {
+                decimals[i] = i % 1000 != 0
+                        ? BigDecimal.valueOf(random.nextLong(1_000_000_000L), 2) // mostly prices
+                        : BigDecimal.valueOf(Long.MAX_VALUE, 2).add(BigDecimal.valueOf(i)); // sometimes too big for long
+            }
+            column = new DecimalColumn(numOfDecimals);
+            for (int i = 0; i < decimals.length; i++) {
+                column.set(i, random.nextLong(1_000_000_000L), 2);
+            }
+            encoded = DecimalBulkCodec.encode(decimals);
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encode_single_threaded_loop(MyState state, BytesCounter bytes) throws InterruptedException {
+        BigDecimal[] decimals = state.decimals;
+        int size = 0;
+        for (int i = 0; i < decimals.length; i++) {
+            size += DecimalBulkCodec.encodedSize(decimals[i]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < decimals.length; i++) {
+            DecimalBulkCodec.encode(decimals[i], buffer);
+        }
+        bytes.bytes += buffer.position();
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encode_in_parallel(MyState state, BytesCounter bytes) throws InterruptedException {
+        ByteBuffer buffer = DecimalBulkCodec.encode(state.decimals, state.pool);
+        bytes.bytes += buffer.capacity();
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer encode_column_in_parallel(MyState state, BytesCounter bytes) throws InterruptedException {
+        ByteBuffer buffer = DecimalBulkCodec.encode(state.column, state.pool);
+        bytes.bytes += buffer.capacity();
+        return buffer;
+    }
+
+    @Benchmark
+    public BigDecimal[] decode_single_threaded_loop(MyState state, BytesCounter bytes) throws InterruptedException {
+        ByteBuffer buffer = state.encoded.duplicate().position(state.encoded.getInt(12)); // skip to the first chunk
+        BigDecimal[] decimals = new BigDecimal[state.numOfDecimals];
+        for (int i = 0; i < decimals.length; i++) {
+            decimals[i] = DecimalBulkCodec.decodeDecimal(buffer);
+        }
+        bytes.bytes += buffer.position();
+        return decimals;
+    }
+
+    @Benchmark
+    public BigDecimal[] decode_in_parallel(MyState state, BytesCounter bytes) throws InterruptedException {
+        BigDecimal[] decimals = DecimalBulkCodec.decode(state.encoded, state.pool);
+        bytes.bytes += state.encoded.capacity();
+        return decimals;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecimalBulkCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
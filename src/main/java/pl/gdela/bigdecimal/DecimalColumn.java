@@ -0,0 +1,56 @@
+package pl.gdela.bigdecimal;
+
+import java.math.BigDecimal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Column of decimals kept in primitive form, as unscaled long values and scales in parallel arrays,
+ * so that there is no object per decimal. Can keep only decimals which unscaled value fits in a long.
+ */
+record DecimalColumn(long[] unscaledValues, int[] scales) {
+
+    DecimalColumn {
+        checkArgument(unscaledValues.length == scales.length,
+                "%s unscaled values but %s scales", unscaledValues.length, scales.length);
+    }
+
+    DecimalColumn(int size) {
+        this(new long[size], new int[size]);
+    }
+
+    /**
+     * Converts decimals to a column, throws {@link ArithmeticException} if any of them doesn't fit.
+     */
+    static DecimalColumn of(BigDecimal... decimals) {
+        var column = new DecimalColumn(decimals.length);
+        for (int i = 0; i < decimals.length; i++) {
+            column.set(i, decimals[i]);
+        }
+        return column;
+    }
+
+    int size() {
+        return unscaledValues.length;
+    }
+
+    /**
+     * Returns decimal at given index, always in the compact, non-inflated form.
+     */
+    BigDecimal get(int index) {
+        return BigDecimal.valueOf(unscaledValues[index], scales[index]);
+    }
+
+    void set(int index, long unscaledValue, int scale) {
+        unscaledValues[index] = unscaledValue;
+        scales[index] = scale;
+    }
+
+    void set(int index, BigDecimal decimal) {
+        long unscaledValue = DecimalIntrospection.unscaledLong(decimal);
+        if (!DecimalIntrospection.fitsInLong(unscaledValue, decimal)) {
+            throw new ArithmeticException("unscaled value of " + decimal + " does not fit in a long");
+        }
+        set(index, unscaledValue, decimal.scale());
+    }
+}
@@ -0,0 +1,109 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+/**
+ * Compares reading a column of prices from a generated CSV file with {@link DecimalCsvIngestor}
+ * against the naive way, with {@link BufferedReader} and {@code new BigDecimal(String)}. The number
+ * of bytes of the file read is reported as a secondary result, in bytes per second, and when run
+ * with {@link #main} the allocation rate is reported too.
+ */
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+public class DecimalCsvIngestionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"10000000"})
+        int numOfLines;
+
+        @Param({"1", "4"})
+        int parallelism;
+
+        Path file;
+        long fileSize;
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = Files.createTempFile("prices-", ".csv");
+            Random random = new Random(0);
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("id,instrument,price,quantity\n");
+                for (int i = 0; i < numOfLines; i++) {
+                    long price = 100_0000 + random.nextInt(10_0000);
+                    writer.write(i + ",INSTR" + (i % 500) + "," + BigDecimal.valueOf(price, 4) + "," + random.nextInt(1000) + "\n");
+                }
+            }
+            fileSize = Files.size(file);
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public DecimalColumn naive_buffered_reader(MyState state, BytesCounter bytes) throws IOException, InterruptedException {
+        var column = new DecimalColumn(state.numOfLines);
+        try (BufferedReader reader = Files.newBufferedReader(state.file)) {
+            reader.readLine(); // skip header
+            String line;
+            int i = 0;
+            while ((line = reader.readLine()) != null) {
+                column.set(i++, new BigDecimal(line.split(",")[2]));
+            }
+        }
+        bytes.bytes += state.fileSize;
+        return column;
+    }
+
+    @Benchmark
+    public DecimalColumn memory_mapped(MyState state, BytesCounter bytes) throws IOException, InterruptedException {
+        var column = new DecimalCsvIngestor(2, true, state.pool).readColumn(state.file);
+        bytes.bytes += state.fileSize;
+        return column;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecimalCsvIngestionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,256 @@
+package pl.gdela.bigdecimal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reads decimals from one column of a CSV file straight into unscaled long values and scales,
+ * without creating a String or BigDecimal for each of them. The file is memory-mapped and split
+ * into chunks that end at line boundaries, and the chunks are parsed in parallel.
+ * <p>
+ * Supports plain decimal numbers like {@code -1234.5678}, with at most 18 digits not counting leading
+ * zeros, so that they for sure fit in a long. Fields are separated by commas, and are not quoted.
+ * Blank lines are skipped.
+ */
+class DecimalCsvIngestor {
+
+    /**
+     * Receives decimals parsed from the file.
+     */
+    @FunctionalInterface
+    interface DecimalConsumer {
+        /**
+         * Called for each parsed decimal, concurrently from many threads, and in no particular order.
+         */
+        void accept(long unscaledValue, int scale);
+    }
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_DIGITS = 18;
+
+    private final int column;
+    private final boolean withHeader;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param column zero-based index of the column to read
+     * @param withHeader whether to skip the first line of the file
+     */
+    DecimalCsvIngestor(int column, boolean withHeader) {
+        this(column, withHeader, ForkJoinPool.commonPool());
+    }
+
+    DecimalCsvIngestor(int column, boolean withHeader, ForkJoinPool pool) {
+        this(column, withHeader, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    DecimalCsvIngestor(int column, boolean withHeader, ForkJoinPool pool, int chunkSize) {
+        checkArgument(column >= 0, "column %s is negative", column);
+        checkArgument(chunkSize > 0, "chunk size %s is not positive", chunkSize);
+        this.column = column;
+        this.withHeader = withHeader;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads all decimals of the column, in the order they are in the file.
+     */
+    DecimalColumn readColumn(Path file) throws IOException {
+        long[] chunkStarts = chunkStarts(file);
+        int numOfChunks = chunkStarts.length - 1;
+        var chunkColumns = new GrowingColumn[numOfChunks];
+        inParallel(file, chunkStarts, (chunk, buffer) -> {
+            var chunkColumn = new GrowingColumn(buffer.limit() / 16); // assuming 16 bytes per line
+            parse(buffer, chunk == 0 && withHeader, chunkColumn);
+            chunkColumns[chunk] = chunkColumn;
+        });
+        int size = 0;
+        for (GrowingColumn chunkColumn : chunkColumns) {
+            size += chunkColumn.size;
+        }
+        var result = new DecimalColumn(size);
+        int offset = 0;
+        for (GrowingColumn chunkColumn : chunkColumns) {
+            System.arraycopy(chunkColumn.unscaledValues, 0, result.unscaledValues(), offset, chunkColumn.size);
+            System.arraycopy(chunkColumn.scales, 0, result.scales(), offset, chunkColumn.size);
+            offset += chunkColumn.size;
+        }
+        return result;
+    }
+
+    /**
+     * Passes all decimals of the column to the consumer, see {@link DecimalConsumer#accept}.
+     */
+    void forEach(Path file, DecimalConsumer consumer) throws IOException {
+        inParallel(file, chunkStarts(file), (chunk, buffer) -> parse(buffer, chunk == 0 && withHeader, consumer));
+    }
+
+    /**
+     * Parses the lines of a chunk, which starts at the beginning of a line, and ends at the end of a line.
+     */
+    private void parse(ByteBuffer buffer, boolean skipFirstLine, DecimalConsumer consumer) {
+        int limit = buffer.limit();
+        int pos = 0;
+        if (skipFirstLine) {
+            while (pos < limit && buffer.get(pos++) != '\n') {
+                // skip header
+            }
+        }
+        while (pos < limit) {
+            int lineStart = pos;
+            int blankEnd = buffer.get(pos) == '\r' ? pos + 1 : pos;
+            if (blankEnd == limit || buffer.get(blankEnd) == '\n') {
+                pos = blankEnd + 1; // blank line, like the empty one that some tools add at the end of file
+                continue;
+            }
+            // skip to the wanted field
+            for (int field = 0; field < column; field++) {
+                byte b;
+                while (pos < limit && (b = buffer.get(pos)) != ',' && b != '\n') pos++;
+                if (pos == limit || buffer.get(pos) == '\n') {
+                    throw new NumberFormatException("no column " + column + " in line " + line(buffer, lineStart));
+                }
+                pos++;
+            }
+            // parse the field
+            boolean negative = false;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negative = buffer.get(pos) == '-';
+                pos++;
+            }
+            long unscaledValue = 0;
+            boolean anyDigits = false;
+            int digits = 0; // significant ones, that is without leading zeros, which don't take room in the long
+            int scale = -1;
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b >= '0' && b <= '9') {
+                    unscaledValue = unscaledValue * 10 + (b - '0');
+                    anyDigits = true;
+                    if (unscaledValue != 0) digits++;
+                    if (scale >= 0) scale++;
+                } else if (b == '.' && scale < 0) {
+                    scale = 0;
+                } else {
+                    break;
+                }
+                pos++;
+            }
+            if (!anyDigits || digits > MAX_DIGITS) {
+                throw new NumberFormatException("not a decimal of up to " + MAX_DIGITS + " digits in line " + line(buffer, lineStart));
+            }
+            // the field has to end here, otherwise it's like 12abc, 1.2.3 or 1e5, which would be silently cut
+            if (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n' && buffer.get(pos) != '\r') {
+                throw new NumberFormatException("not a plain decimal in column " + column + " of line " + line(buffer, lineStart));
+            }
+            consumer.accept(negative ? -unscaledValue : unscaledValue, Math.max(scale, 0));
+            // skip the rest of the line
+            while (pos < limit && buffer.get(pos++) != '\n') {
+                // next field or carriage return
+            }
+        }
+    }
+
+    private static String line(ByteBuffer buffer, int lineStart) {
+        int lineEnd = lineStart;
+        while (lineEnd < buffer.limit() && buffer.get(lineEnd) != '\n') lineEnd++;
+        byte[] bytes = new byte[lineEnd - lineStart];
+        buffer.get(lineStart, bytes);
+        return "'" + new String(bytes, StandardCharsets.US_ASCII).strip() + "'";
+    }
+
+    /**
+     * Finds where the chunks start, so that each starts just after a new line character. There is
+     * an extra one at the end, which is the size of the file.
+     */
+    private long[] chunkStarts(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            long[] starts = new long[(int) (size / chunkSize) + 2];
+            int numOfStarts = 1;
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long position = chunkSize;
+            while (position < size) {
+                probe.clear();
+                channel.read(probe, position - 1);
+                probe.flip();
+                int newLine = 0;
+                while (newLine < probe.limit() && probe.get(newLine) != '\n') newLine++;
+                if (newLine == probe.limit()) {
+                    position += probe.limit(); // very long line, look further
+                    continue;
+                }
+                long start = position + newLine;
+                if (start < size) {
+                    starts[numOfStarts++] = start;
+                }
+                position = start + chunkSize;
+            }
+            starts[numOfStarts++] = size;
+            return Arrays.copyOf(starts, numOfStarts);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkAction {
+        void accept(int chunk, ByteBuffer buffer);
+    }
+
+    /**
+     * Maps each chunk of the file and passes it to the action, in parallel.
+     */
+    private void inParallel(Path file, long[] chunkStarts, ChunkAction chunkAction) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ChunksAction.inParallel(pool, chunkStarts.length - 1, chunk -> {
+                MappedByteBuffer buffer;
+                try {
+                    buffer = channel.map(READ_ONLY, chunkStarts[chunk], chunkStarts[chunk + 1] - chunkStarts[chunk]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                chunkAction.accept(chunk, buffer);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Column to which decimals of one chunk are appended, growing as needed.
+     */
+    private static class GrowingColumn implements DecimalConsumer {
+        long[] unscaledValues;
+        int[] scales;
+        int size;
+
+        GrowingColumn(int initialCapacity) {
+            unscaledValues = new long[Math.max(16, initialCapacity)];
+            scales = new int[unscaledValues.length];
+        }
+
+        @Override
+        public void accept(long unscaledValue, int scale) {
+            if (size == unscaledValues.length) {
+                unscaledValues = Arrays.copyOf(unscaledValues, size * 2);
+                scales = Arrays.copyOf(scales, size * 2);
+            }
+            unscaledValues[size] = unscaledValue;
+            scales[size] = scale;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package pl.gdela.bigdecimal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static pl.gdela.bigdecimal.DecimalMath.hash;
+
+/**
+ * Bounded cache of compact BigDecimal instances, so that deserializing the same value many times
+ * gives the same instance instead of a fresh one each time. The lookup is done by the unscaled
+ * long value and scale, so no BigDecimal has to be created to find out that it is already cached.
+ * <p>
+ * The table is open-addressing, but set-associative: a key may be placed only in one of the
+ * {@value #SET_SIZE} consecutive slots of its set, so the unscaled values of a set share one cache
+ * line. When the set is full, one of its entries is evicted with the CLOCK algorithm, that is the
+ * first entry not referenced since the clock hand of the set passed it last time. Each set has its
+ * own hand, so evictions in other sets do not move it. Thanks to that the table
+ * never grows beyond the capacity given at construction.
+ * <p>
+ * Interning is safe to be called from many threads. Lookups do not take any lock, only adding
+ * a new entry is synchronized.
+ */
+class DecimalInterner {
+
+    /**
+     * Number of slots that a key may be placed in.
+     */
+    static final int SET_SIZE = 8;
+
+    /**
+     * Approximate number of bytes that one slot takes: the unscaled value, the scale, the referenced
+     * flag, the reference to the decimal (with compressed oops), and the compact decimal itself.
+     */
+    static final int BYTES_PER_SLOT = 8 + 4 + 1 + 4 + 40;
+
+    private static final VarHandle DECIMALS = MethodHandles.arrayElementVarHandle(BigDecimal[].class);
+
+    private final long[] unscaledValues;
+    private final int[] scales;
+    private final BigDecimal[] decimals;
+    private final boolean[] referenced;
+    private final byte[] clockHands; // of each set, only its lowest bits are used
+    private final int setMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates interner that keeps at most given number of decimals, rounded up to a power of two.
+     */
+    DecimalInterner(int capacity) {
+        checkArgument(capacity > 0, "capacity %s is not positive", capacity);
+        int minNumOfSets = (capacity + SET_SIZE - 1) / SET_SIZE;
+        int numOfSets = minNumOfSets == 1 ? 1 : Integer.highestOneBit(minNumOfSets - 1) << 1;
+        int numOfSlots = numOfSets * SET_SIZE;
+        unscaledValues = new long[numOfSlots];
+        scales = new int[numOfSlots];
+        decimals = new BigDecimal[numOfSlots];
+        referenced = new boolean[numOfSlots];
+        clockHands = new byte[numOfSets];
+        setMask = numOfSets - 1;
+    }
+
+    /**
+     * Creates interner that keeps as many decimals as fit in given number of bytes.
+     */
+    static DecimalInterner withMemoryBudget(long bytes) {
+        long capacity = bytes / BYTES_PER_SLOT;
+        checkArgument(capacity >= SET_SIZE, "memory budget of %s bytes is too small", bytes);
+        return new DecimalInterner((int) Long.highestOneBit(Math.min(capacity, 1 << 30))); // round down to stay within budget
+    }
+
+    /**
+     * Returns decimal with given unscaled value and scale, the same instance as returned earlier
+     * for the same arguments, unless it has been evicted in the meantime.
+     */
+    BigDecimal intern(long unscaledValue, int scale) {
+        int setStart = (hash(unscaledValue, scale) & setMask) * SET_SIZE;
+        for (int slot = setStart; slot < setStart + SET_SIZE; slot++) {
+            BigDecimal candidate = (BigDecimal) DECIMALS.getAcquire(decimals, slot);
+            if (candidate == null) {
+                break; // sets are filled from the start, so the rest of the set is empty too
+            }
+            if (unscaledValues[slot] == unscaledValue && scales[slot] == scale) {
+                // the key could have been read while being replaced, but then the decimal is replaced too
+                VarHandle.loadLoadFence();
+                if (DECIMALS.getAcquire(decimals, slot) == candidate) {
+                    referenced[slot] = true;
+                    hits.increment();
+                    return candidate;
+                }
+            }
+        }
+        misses.increment();
+        return add(setStart, unscaledValue, scale);
+    }
+
+    private synchronized BigDecimal add(int setStart, long unscaledValue, int scale) {
+        int freeSlot = -1;
+        for (int slot = setStart; slot < setStart + SET_SIZE; slot++) {
+            BigDecimal existing = decimals[slot];
+            if (existing == null) {
+                freeSlot = slot;
+                break;
+            }
+            if (unscaledValues[slot] == unscaledValue && scales[slot] == scale) {
+                return existing; // added by other thread in the meantime
+            }
+        }
+        int slot = freeSlot >= 0 ? freeSlot : evict(setStart);
+        BigDecimal decimal = BigDecimal.valueOf(unscaledValue, scale);
+        DECIMALS.setVolatile(decimals, slot, (BigDecimal) null);
+        VarHandle.storeStoreFence(); // readers must not see the new key with the old decimal
+        unscaledValues[slot] = unscaledValue;
+        scales[slot] = scale;
+        referenced[slot] = false;
+        DECIMALS.setRelease(decimals, slot, decimal);
+        return decimal;
+    }
+
+    /**
+     * Moves the clock hand of the set until it finds slot not referenced since the last pass,
+     * clearing the referenced flag of the slots it goes by. Returns the slot found.
+     */
+    private int evict(int setStart) {
+        int set = setStart / SET_SIZE;
+        while (true) {
+            int slot = setStart + (clockHands[set]++ & (SET_SIZE - 1));
+            if (!referenced[slot]) {
+                return slot;
+            }
+            referenced[slot] = false;
+        }
+    }
+
+    int capacity() {
+        return decimals.length;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    double hitRatio() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,56 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.System.out;
+import static pl.gdela.bigdecimal.BigDecimalSerializationBenchmark.serializeDeserializeOptimized;
+
+/**
+ * Shows how much heap is retained by a million of deserialized decimals when the values repeat,
+ * like prices in market data do, with and without the {@link DecimalInterner}.
+ * <p>
+ * Walking a million of objects with JOL takes a while, it's faster when JOL is allowed to read
+ * the BigDecimal fields with {@code --add-opens java.base/java.math=ALL-UNNAMED}.
+ */
+class DecimalInternerEffects {
+
+    public static void main(String[] args) {
+        int numOfDecoded = 1_000_000;
+        for (int numOfDistinct : new int[] { 1_000, 5_000, 50_000 }) {
+            BigDecimal[] encoded = pricesRepeating(numOfDecoded, numOfDistinct);
+            out.printf("--- %d decoded values, %d distinct ---%n", numOfDecoded, numOfDistinct);
+            decode(encoded, null);
+            decode(encoded, new DecimalInterner(16_384));
+        }
+    }
+
+    private static BigDecimal[] pricesRepeating(int numOfValues, int numOfDistinct) {
+        Random random = new Random(0);
+        BigDecimal[] prices = new BigDecimal[numOfValues];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = BigDecimal.valueOf(100_00 + random.nextInt(numOfDistinct), 2);
+        }
+        return prices;
+    }
+
+    private static void decode(BigDecimal[] encoded, DecimalInterner interner) {
+        BigDecimal[] decoded = new BigDecimal[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            decoded[i] = serializeDeserializeOptimized(encoded[i], interner);
+        }
+        // each decoded decimal is a root, so that the array is not counted, but the interner's table is
+        Object[] roots = Arrays.copyOf(decoded, decoded.length + (interner != null ? 1 : 0), Object[].class);
+        if (interner != null) roots[decoded.length] = interner;
+        long retainedSize = GraphLayout.parseInstance(roots).totalSize();
+        if (interner == null) {
+            out.printf("without interner: %d bytes retained per million%n", retainedSize * 1_000_000 / decoded.length);
+        } else {
+            out.printf("with interner of %d: %d bytes retained per million, hit ratio %.3f%n",
+                    interner.capacity(), retainedSize * 1_000_000 / decoded.length, interner.hitRatio());
+        }
+    }
+}
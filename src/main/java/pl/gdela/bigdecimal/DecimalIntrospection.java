@@ -0,0 +1,91 @@
+package pl.gdela.bigdecimal;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Gets the unscaled value of a decimal as a long, without creating the unscaled BigInteger, and
+ * without calling {@link BigDecimal#precision()}, which is costly the first time, and remembered
+ * by the decimal, so it makes the repeated calls look cheaper than they are in practice.
+ * <p>
+ * When the {@code java.math} package is opened to this code, for example with
+ * {@code --add-opens java.base/java.math=ALL-UNNAMED}, the compact value that BigDecimal keeps
+ * internally is read directly. Otherwise it falls back to the public API, which is slower.
+ */
+class DecimalIntrospection {
+
+    /**
+     * Returned instead of the unscaled value when it does not fit in a long. It's the same value that
+     * BigDecimal uses internally to mark that it's inflated, so for the decimal with unscaled value
+     * equal to {@link Long#MIN_VALUE} it is returned as well, and it has to be checked separately.
+     */
+    static final long INFLATED = Long.MIN_VALUE;
+
+    private static final VarHandle INT_COMPACT;
+    private static final VarHandle INT_VAL;
+    static {
+        VarHandle intCompact = null;
+        VarHandle intVal = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(BigDecimal.class, MethodHandles.lookup());
+            intCompact = lookup.findVarHandle(BigDecimal.class, "intCompact", long.class);
+            intVal = lookup.findVarHandle(BigDecimal.class, "intVal", BigInteger.class);
+        } catch (IllegalAccessException | NoSuchFieldException e) {
+            // not opened, or internals changed, the public API will be used
+        }
+        INT_COMPACT = intCompact;
+        INT_VAL = intVal;
+    }
+
+    private static final BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private DecimalIntrospection() {
+    }
+
+    /**
+     * Tells if the internals of BigDecimal can be read, so that {@link #unscaledLong} is fast.
+     */
+    static boolean isPrivileged() {
+        return INT_COMPACT != null;
+    }
+
+    /**
+     * Returns unscaled value of the decimal, or {@link #INFLATED} if it does not fit in a long.
+     */
+    static long unscaledLong(BigDecimal decimal) {
+        return isPrivileged() ? unscaledLongPrivileged(decimal) : unscaledLongPublic(decimal);
+    }
+
+    static long unscaledLongPrivileged(BigDecimal decimal) {
+        checkState(isPrivileged(), "internals of BigDecimal are not accessible, java.math package has to be opened");
+        long intCompact = (long) INT_COMPACT.get(decimal);
+        if (intCompact != INFLATED) {
+            return intCompact;
+        }
+        BigInteger intVal = (BigInteger) INT_VAL.get(decimal);
+        return intVal.bitLength() <= 63 ? intVal.longValue() : INFLATED;
+    }
+
+    static long unscaledLongPublic(BigDecimal decimal) {
+        // for compact decimal this gives the same intCompact with scale zero, for which longValue() is trivial,
+        // and the comparisons of the two compact decimals of the same scale are just comparisons of longs
+        BigDecimal unscaled = decimal.scaleByPowerOfTen(decimal.scale());
+        if (unscaled.compareTo(MAX_LONG) > 0 || unscaled.compareTo(MIN_LONG) < 0) {
+            return INFLATED;
+        }
+        return unscaled.longValue();
+    }
+
+    /**
+     * Tells if the decimal, of which {@link #unscaledLong} returned given value, has unscaled value fitting in a long.
+     */
+    static boolean fitsInLong(long unscaledValue, BigDecimal decimal) {
+        // the marker of inflation is a valid unscaled value as well, so it has to be checked
+        return unscaledValue != INFLATED || decimal.unscaledValue().bitLength() <= 63;
+    }
+}
@@ -0,0 +1,210 @@
+package pl.gdela.bigdecimal;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ObjLongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static pl.gdela.bigdecimal.DecimalIntrospection.fitsInLong;
+import static pl.gdela.bigdecimal.DecimalIntrospection.unscaledLong;
+import static pl.gdela.bigdecimal.DecimalMath.POWERS_OF_TEN;
+import static pl.gdela.bigdecimal.DecimalMath.hash;
+
+/**
+ * Map from decimals to long values, like {@code HashMap<BigDecimal, Long>}, but without an object
+ * per entry. Keys are compared by their numerical value, like with {@link BigDecimal#compareTo},
+ * so {@code 1.0} and {@code 1.00} are the same key. To achieve that, each key is normalized by
+ * stripping the trailing zeros of its unscaled value, and kept as unscaled long and scale in
+ * an open-addressing table with linear probing.
+ * <p>
+ * Keys which unscaled value does not fit in a long even after normalization are kept in a side
+ * {@link HashMap}, so they work as well, just slower. The map is not thread-safe.
+ */
+class DecimalLongMap {
+
+    /**
+     * Receives entries of the map, see {@link #forEach(EntryConsumer)}.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long unscaledKey, int scale, long value);
+    }
+
+    /**
+     * Number of bytes that one slot takes: the unscaled value, the scale, and the value.
+     */
+    static final int BYTES_PER_SLOT = 3 * 8;
+
+    private static final int FREE = Integer.MIN_VALUE; // scale marking a free slot, normalized keys never have it
+    private static final int MAX_CAPACITY = 1 << 29; // so that the table with three longs per slot fits in an array
+
+    // unscaled value, scale and value of each slot are next to each other, so a lookup usually touches
+    // just one cache line, which is what makes it faster than with three separate arrays for them
+    private long[] table;
+    private int mask;
+    private int size;
+    private final Map<BigDecimal, Long> inflatedKeys = new HashMap<>();
+
+    DecimalLongMap() {
+        this(16);
+    }
+
+    /**
+     * Creates map that can take given number of entries without growing.
+     */
+    DecimalLongMap(int expectedSize) {
+        checkArgument(expectedSize >= 0, "expected size %s is negative", expectedSize);
+        long minCapacity = Math.max(16, expectedSize * 4L / 3 + 1); // load factor of 0.75
+        checkArgument(minCapacity <= MAX_CAPACITY, "expected size %s is too big", expectedSize);
+        allocate(Integer.highestOneBit((int) minCapacity - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity * 3];
+        for (int i = 1; i < table.length; i += 3) {
+            table[i] = FREE;
+        }
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size + inflatedKeys.size();
+    }
+
+    long getOrDefault(BigDecimal key, long defaultValue) {
+        long unscaledKey = unscaledLong(key);
+        if (fitsInLong(unscaledKey, key)) {
+            return getOrDefault(unscaledKey, key.scale(), defaultValue);
+        }
+        BigDecimal stripped = key.stripTrailingZeros();
+        long unscaledStripped = unscaledLong(stripped);
+        if (fitsInLong(unscaledStripped, stripped)) {
+            return getOrDefault(unscaledStripped, stripped.scale(), defaultValue);
+        }
+        return inflatedKeys.getOrDefault(stripped, defaultValue);
+    }
+
+    long getOrDefault(long unscaledKey, int scale, long defaultValue) {
+        int zeros = trailingZeros(unscaledKey);
+        long normalizedScale = unscaledKey == 0 ? 0 : (long) scale - zeros; // all zeros are equal, whatever the scale
+        if (normalizedScale <= FREE) {
+            return inflatedKeys.getOrDefault(BigDecimal.valueOf(unscaledKey, scale).stripTrailingZeros(), defaultValue);
+        }
+        int slot = find(unscaledKey / POWERS_OF_TEN[zeros], (int) normalizedScale);
+        return slot >= 0 ? table[slot * 3 + 2] : defaultValue;
+    }
+
+    void put(BigDecimal key, long value) {
+        merge(key, value, (oldValue, newValue) -> newValue);
+    }
+
+    void put(long unscaledKey, int scale, long value) {
+        merge(unscaledKey, scale, value, (oldValue, newValue) -> newValue);
+    }
+
+    /**
+     * Puts given value if there's no entry for given key yet, otherwise replaces the value with
+     * the result of the remapping function, called with the old and given value. Returns the value
+     * that is in the map after the operation. Unlike {@link Map#merge}, there's no way to remove
+     * the entry, so it is most useful for accumulating, like {@code merge(key, amount, Long::sum)}.
+     */
+    long merge(BigDecimal key, long value, LongBinaryOperator remappingFunction) {
+        long unscaledKey = unscaledLong(key);
+        if (fitsInLong(unscaledKey, key)) {
+            return merge(unscaledKey, key.scale(), value, remappingFunction);
+        }
+        BigDecimal stripped = key.stripTrailingZeros();
+        long unscaledStripped = unscaledLong(stripped);
+        if (fitsInLong(unscaledStripped, stripped)) {
+            return merge(unscaledStripped, stripped.scale(), value, remappingFunction);
+        }
+        return mergeInflated(stripped, value, remappingFunction);
+    }
+
+    long merge(long unscaledKey, int scale, long value, LongBinaryOperator remappingFunction) {
+        int zeros = trailingZeros(unscaledKey);
+        long normalizedScale = unscaledKey == 0 ? 0 : (long) scale - zeros; // all zeros are equal, whatever the scale
+        if (normalizedScale <= FREE) {
+            return mergeInflated(BigDecimal.valueOf(unscaledKey, scale).stripTrailingZeros(), value, remappingFunction);
+        }
+        long normalizedKey = unscaledKey / POWERS_OF_TEN[zeros];
+        int slot = find(normalizedKey, (int) normalizedScale);
+        if (slot >= 0) {
+            return table[slot * 3 + 2] = remappingFunction.applyAsLong(table[slot * 3 + 2], value);
+        }
+        slot = -slot - 1;
+        table[slot * 3] = normalizedKey;
+        table[slot * 3 + 1] = normalizedScale;
+        table[slot * 3 + 2] = value;
+        if (++size > (mask + 1) / 4 * 3) {
+            grow();
+        }
+        return value;
+    }
+
+    private long mergeInflated(BigDecimal strippedKey, long value, LongBinaryOperator remappingFunction) {
+        return inflatedKeys.merge(strippedKey, value, remappingFunction::applyAsLong);
+    }
+
+    /**
+     * Passes all entries which key fits in a long to the consumer, without allocating anything.
+     * Keys are passed normalized, that is without trailing zeros. The remaining entries, if any,
+     * have to be iterated with {@link #forEachInflated}.
+     */
+    void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < table.length; i += 3) {
+            if (table[i + 1] != FREE) {
+                consumer.accept(table[i], (int) table[i + 1], table[i + 2]);
+            }
+        }
+    }
+
+    /**
+     * Passes all entries which key does not fit in a long to the consumer.
+     */
+    void forEachInflated(ObjLongConsumer<BigDecimal> consumer) {
+        inflatedKeys.forEach(consumer::accept);
+    }
+
+    /**
+     * Returns slot of given normalized key if it's in the table, otherwise {@code -(free slot) - 1}.
+     */
+    private int find(long unscaledKey, int scale) {
+        int slot = hash(unscaledKey, scale) & mask;
+        while (table[slot * 3 + 1] != FREE) {
+            if (table[slot * 3] == unscaledKey && table[slot * 3 + 1] == scale) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private void grow() {
+        checkState(mask + 1 < MAX_CAPACITY, "map is full");
+        long[] oldTable = table;
+        allocate((mask + 1) * 2);
+        for (int i = 0; i < oldTable.length; i += 3) {
+            if (oldTable[i + 1] != FREE) {
+                int slot = -find(oldTable[i], (int) oldTable[i + 1]) - 1;
+                System.arraycopy(oldTable, i, table, slot * 3, 3);
+            }
+        }
+    }
+
+    private static int trailingZeros(long unscaledValue) {
+        if (unscaledValue == 0) {
+            return 0;
+        }
+        int zeros = 0;
+        while (unscaledValue % 10 == 0) {
+            unscaledValue /= 10;
+            zeros++;
+        }
+        return zeros;
+    }
+}
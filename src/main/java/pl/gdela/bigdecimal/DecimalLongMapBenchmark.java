@@ -0,0 +1,188 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.AuxCounters.Type.EVENTS;
+import static org.openjdk.jmh.annotations.AuxCounters.Type.OPERATIONS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+/**
+ * Compares {@link DecimalLongMap} against {@code HashMap<BigDecimal, Long>}, in aggregating
+ * amounts by price, as done for positions. The number of keys processed is reported as a secondary
+ * result, in keys per second, and the heap taken by the filled map, in bytes per key.
+ * <p>
+ * With fifty million keys the hash map takes a few gigabytes, hence the big heap of the fork.
+ */
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms16G", "-Xmx16G"})
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+public class DecimalLongMapBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"1000000", "50000000"})
+        int numOfKeys;
+
+        @Param({"hash_map", "decimal_long_map"})
+        String map;
+
+        BigDecimal[] keys;
+        BigDecimal[] lookupKeys;
+        Map<BigDecimal, Long> filledHashMap;
+        DecimalLongMap filledDecimalLongMap;
+        double bytesPerKey;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keys = shuffledPrices(numOfKeys, new Random(0));
+            // equal keys, but other instances in other order, otherwise the hash map would have an unfair
+            // advantage of reading its entries in the order they were allocated, so sequentially in memory
+            lookupKeys = shuffledPrices(numOfKeys, new Random(1));
+            long heapBefore = usedHeap();
+            if (map.equals("hash_map")) {
+                filledHashMap = putToHashMap(keys);
+            } else {
+                filledDecimalLongMap = putToDecimalLongMap(keys);
+            }
+            bytesPerKey = (double) (usedHeap() - heapBefore) / numOfKeys;
+        }
+
+        /**
+         * Distinct prices with two decimal places, in random order.
+         */
+        private static BigDecimal[] shuffledPrices(int numOfPrices, Random random) {
+            BigDecimal[] prices = new BigDecimal[numOfPrices];
+            for (int i = 0; i < numOfPrices; i++) {
+                prices[i] = BigDecimal.valueOf(100_00 + i, 2);
+            }
+            for (int i = numOfPrices - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                BigDecimal price = prices[i];
+                prices[i] = prices[j];
+                prices[j] = price;
+            }
+            return prices;
+        }
+
+        private static long usedHeap() {
+            System.gc();
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(OPERATIONS)
+    public static class Keys {
+        public long keys;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            keys = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(EVENTS)
+    public static class Footprint {
+        /**
+         * Heap taken by the filled map. The key decimals are not counted, as they are kept by the array
+         * of keys anyway, but when kept only by the hash map, they add about forty bytes per key.
+         */
+        public double bytesPerKey;
+
+        @TearDown(Level.Iteration)
+        public void tearDown(MyState state, IterationParams iterationParams) {
+            // averaged over iterations, as in BigDecimalSerializationBenchmark
+            bytesPerKey = state.bytesPerKey / iterationParams.getCount();
+        }
+    }
+
+    @Benchmark
+    public Object put(MyState state, Keys keys, Footprint footprint) throws InterruptedException {
+        keys.keys += state.numOfKeys;
+        return state.map.equals("hash_map") ? putToHashMap(state.keys) : putToDecimalLongMap(state.keys);
+    }
+
+    @Benchmark
+    public long get(MyState state, Keys keys, Footprint footprint) throws InterruptedException {
+        keys.keys += state.numOfKeys;
+        long sum = 0;
+        if (state.map.equals("hash_map")) {
+            for (BigDecimal key : state.lookupKeys) {
+                sum += state.filledHashMap.getOrDefault(key, 0L);
+            }
+        } else {
+            for (BigDecimal key : state.lookupKeys) {
+                sum += state.filledDecimalLongMap.getOrDefault(key, 0L);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long merge(MyState state, Keys keys, Footprint footprint) throws InterruptedException {
+        keys.keys += state.numOfKeys;
+        long sum = 0;
+        if (state.map.equals("hash_map")) {
+            for (BigDecimal key : state.lookupKeys) {
+                sum += state.filledHashMap.merge(key, 1L, Long::sum);
+            }
+        } else {
+            for (BigDecimal key : state.lookupKeys) {
+                sum += state.filledDecimalLongMap.merge(key, 1L, Long::sum);
+            }
+        }
+        return sum;
+    }
+
+    private static Map<BigDecimal, Long> putToHashMap(BigDecimal[] keys) {
+        Map<BigDecimal, Long> map = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], (long) i);
+        }
+        return map;
+    }
+
+    private static DecimalLongMap putToDecimalLongMap(BigDecimal[] keys) {
+        var map = new DecimalLongMap();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecimalLongMapBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
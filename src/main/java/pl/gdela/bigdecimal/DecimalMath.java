@@ -0,0 +1,37 @@
+package pl.gdela.bigdecimal;
+
+/**
+ * Helpers for decimals kept as an unscaled long value and a scale, shared by the classes that work
+ * on them without creating BigDecimal objects.
+ */
+final class DecimalMath {
+
+    /**
+     * Powers of ten that fit in a long, from 10^0 to 10^18, indexed by the exponent.
+     */
+    static final long[] POWERS_OF_TEN = new long[19];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private DecimalMath() {
+    }
+
+    /**
+     * Hash of unscaled value and scale, of which all bits are well mixed, so that it can be masked to
+     * index a table, and consecutive values do not land in neighbouring slots.
+     */
+    static int hash(long unscaledValue, int scale) {
+        long h = unscaledValue * 31 + scale;
+        // finalization mix of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,294 @@
+package pl.gdela.bigdecimal;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static pl.gdela.bigdecimal.ChunksAction.inParallel;
+import static pl.gdela.bigdecimal.DecimalMath.POWERS_OF_TEN;
+
+/**
+ * Sorts a {@link DecimalColumn} by the numerical value of decimals, with a radix sort.
+ * <p>
+ * All decimals are first rescaled to a common scale, the biggest one in the column, not counting
+ * the scales of the rare outliers, so that their unscaled values can be compared as plain longs. Those are sorted with LSD radix sort, a byte at a time,
+ * after flipping the sign bit, so that negative values come before positive ones when the bytes
+ * are treated as unsigned. Bytes that are the same in all values, like the highest bytes of
+ * prices, are skipped. Each pass counts the bytes and then scatters the values, both done in
+ * parallel over chunks of the column on a {@link ForkJoinPool}.
+ * <p>
+ * The rare decimals that do not fit in a long after rescaling, or are of a bigger scale than the
+ * common one, are sorted separately, by comparing them as BigDecimals, and then inserted among the
+ * others with a binary search.
+ * <p>
+ * The sort is stable, so equal decimals, even if of different scales like {@code 1.0} and
+ * {@code 1.00}, stay in the order they had, and keep their scales.
+ */
+class DecimalRadixSort {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int NUM_OF_PASSES = Long.SIZE / RADIX_BITS;
+    private static final long OVERFLOW = Long.MIN_VALUE; // never a result of rescaling, as its negation wouldn't fit
+    private static final int OUTLIER_RATIO = 1000; // at most one in that many decimals may be of bigger scale than the common one
+    private static final int MAX_SCALE_RANGE = 1 << 16; // of scales counted in histogram, wider ranges are sorted
+
+    private DecimalRadixSort() {
+    }
+
+    static void sort(DecimalColumn column) {
+        sort(column, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sorts the column in place, in ascending order.
+     */
+    static void sort(DecimalColumn column, ForkJoinPool pool) {
+        int[] permutation = argsort(column, pool);
+        long[] unscaledValues = column.unscaledValues();
+        int[] scales = column.scales();
+        long[] sortedUnscaledValues = new long[permutation.length];
+        int[] sortedScales = new int[permutation.length];
+        inParallel(pool, numOfChunks(permutation.length), chunk -> {
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, permutation.length); i++) {
+                sortedUnscaledValues[i] = unscaledValues[permutation[i]];
+                sortedScales[i] = scales[permutation[i]];
+            }
+        });
+        System.arraycopy(sortedUnscaledValues, 0, unscaledValues, 0, permutation.length);
+        System.arraycopy(sortedScales, 0, scales, 0, permutation.length);
+    }
+
+    static int[] argsort(DecimalColumn column) {
+        return argsort(column, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the permutation that sorts the column, without changing it, that is indices of
+     * decimals of the column in their ascending order.
+     */
+    static int[] argsort(DecimalColumn column, ForkJoinPool pool) {
+        long[] unscaledValues = column.unscaledValues();
+        int[] scales = column.scales();
+        int size = column.size();
+        int numOfChunks = numOfChunks(size);
+
+        // rescale to the same scale, and find out which bits differ and which values do not fit
+        int commonScale = commonScale(scales);
+        long[] keys = new long[size];
+        int[] indices = new int[size];
+        long[] chunkOrs = new long[numOfChunks];
+        long[] chunkAnds = new long[numOfChunks];
+        int[] chunkOverflows = new int[numOfChunks];
+        inParallel(pool, numOfChunks, chunk -> {
+            long or = 0;
+            long and = -1;
+            int overflows = 0;
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk, size); i++) {
+                long key = rescaled(unscaledValues[i], (long) commonScale - scales[i]);
+                if (key == OVERFLOW) {
+                    overflows++;
+                    continue;
+                }
+                key ^= Long.MIN_VALUE; // flip the sign bit, so that negatives are before positives as unsigned
+                keys[i] = key;
+                indices[i] = i;
+                or |= key;
+                and &= key;
+            }
+            chunkOrs[chunk] = or;
+            chunkAnds[chunk] = and;
+            chunkOverflows[chunk] = overflows;
+        });
+        long differingBits = 0;
+        long sameBits = -1;
+        int numOfOverflows = 0;
+        for (int chunk = 0; chunk < numOfChunks; chunk++) {
+            differingBits |= chunkOrs[chunk];
+            sameBits &= chunkAnds[chunk];
+            numOfOverflows += chunkOverflows[chunk];
+        }
+        differingBits &= ~sameBits;
+
+        int[] overflowIndices = new int[numOfOverflows];
+        int numOfKeys = size;
+        if (numOfOverflows > 0) {
+            numOfKeys = 0;
+            numOfOverflows = 0;
+            for (int i = 0; i < size; i++) {
+                if (rescaled(unscaledValues[i], (long) commonScale - scales[i]) == OVERFLOW) {
+                    overflowIndices[numOfOverflows++] = i;
+                } else {
+                    keys[numOfKeys] = keys[i];
+                    indices[numOfKeys] = indices[i];
+                    numOfKeys++;
+                }
+            }
+        }
+
+        int[] sortedIndices = radixSort(keys, indices, numOfKeys, differingBits, pool);
+        if (numOfOverflows == 0) {
+            return sortedIndices;
+        }
+        return insertOverflows(column, sortedIndices, numOfKeys, overflowIndices);
+    }
+
+    /**
+     * Returns the scale to rescale decimals to, the smallest one that at most one in {@link #OUTLIER_RATIO}
+     * decimals exceed, so that a few decimals of much bigger scale don't make all the others overflow.
+     */
+    static int commonScale(int[] scales) {
+        if (scales.length == 0) {
+            return 0;
+        }
+        int minScale = Integer.MAX_VALUE;
+        int maxScale = Integer.MIN_VALUE;
+        for (int scale : scales) {
+            minScale = Math.min(minScale, scale);
+            maxScale = Math.max(maxScale, scale);
+        }
+        int allowedAbove = scales.length / OUTLIER_RATIO;
+        if ((long) maxScale - minScale >= MAX_SCALE_RANGE) {
+            int[] sortedScales = scales.clone();
+            Arrays.sort(sortedScales);
+            return sortedScales[sortedScales.length - 1 - allowedAbove];
+        }
+        int[] counts = new int[maxScale - minScale + 1];
+        for (int scale : scales) {
+            counts[scale - minScale]++;
+        }
+        int above = 0;
+        for (int i = counts.length - 1; i > 0; i--) {
+            if (above + counts[i] > allowedAbove) {
+                return minScale + i;
+            }
+            above += counts[i];
+        }
+        return minScale;
+    }
+
+    /**
+     * Sorts first {@code size} keys, with their indices, returns the sorted indices.
+     */
+    private static int[] radixSort(long[] keys, int[] indices, int size, long differingBits, ForkJoinPool pool) {
+        int numOfChunks = numOfChunks(size);
+        long[] otherKeys = new long[size];
+        int[] otherIndices = new int[size];
+        int[][] chunkOffsets = new int[numOfChunks][RADIX];
+        for (int pass = 0; pass < NUM_OF_PASSES; pass++) {
+            int shift = pass * RADIX_BITS;
+            if ((differingBits >>> shift & (RADIX - 1)) == 0) {
+                continue; // all keys have the same byte here, so it would not change the order
+            }
+            long[] fromKeys = keys;
+            int[] fromIndices = indices;
+            long[] toKeys = otherKeys;
+            int[] toIndices = otherIndices;
+            inParallel(pool, numOfChunks, chunk -> {
+                int[] counts = chunkOffsets[chunk];
+                Arrays.fill(counts, 0);
+                for (int i = chunkStart(chunk); i < chunkEnd(chunk, size); i++) {
+                    counts[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+                }
+            });
+            // turn counts into offsets: all chunks' values with smaller byte go first, then earlier chunks' with the same byte
+            int offset = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                for (int chunk = 0; chunk < numOfChunks; chunk++) {
+                    int count = chunkOffsets[chunk][digit];
+                    chunkOffsets[chunk][digit] = offset;
+                    offset += count;
+                }
+            }
+            inParallel(pool, numOfChunks, chunk -> {
+                int[] offsets = chunkOffsets[chunk];
+                for (int i = chunkStart(chunk); i < chunkEnd(chunk, size); i++) {
+                    int to = offsets[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+                    toKeys[to] = fromKeys[i];
+                    toIndices[to] = fromIndices[i];
+                }
+            });
+            otherKeys = keys;
+            otherIndices = indices;
+            keys = toKeys;
+            indices = toIndices;
+        }
+        return indices.length == size ? indices : Arrays.copyOf(indices, size);
+    }
+
+    /**
+     * Sorts the decimals that did not fit in a long by comparing them, and inserts them among the others.
+     */
+    private static int[] insertOverflows(DecimalColumn column, int[] sortedIndices, int numOfSorted, int[] overflowIndices) {
+        List<Integer> overflows = new ArrayList<>(overflowIndices.length);
+        for (int index : overflowIndices) {
+            overflows.add(index);
+        }
+        overflows.sort(Comparator.comparing(column::get)); // stable, as required
+        int[] result = new int[numOfSorted + overflows.size()];
+        int from = 0;
+        int to = 0;
+        for (int overflow : overflows) {
+            BigDecimal decimal = column.get(overflow);
+            // first of the sorted that is greater, or equal but later in the column, so that the sort stays stable
+            int low = from;
+            int high = numOfSorted;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int comparison = column.get(sortedIndices[middle]).compareTo(decimal);
+                if (comparison < 0 || (comparison == 0 && sortedIndices[middle] < overflow)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            System.arraycopy(sortedIndices, from, result, to, low - from);
+            to += low - from;
+            result[to++] = overflow;
+            from = low;
+        }
+        System.arraycopy(sortedIndices, from, result, to, numOfSorted - from);
+        return result;
+    }
+
+    /**
+     * Multiplies unscaled value by ten to the given power, returns {@link #OVERFLOW} if it does not fit in a long,
+     * or if the power is negative, as the decimal is of bigger scale than the common one.
+     */
+    private static long rescaled(long unscaledValue, long powerOfTen) {
+        if (powerOfTen < 0) {
+            return OVERFLOW;
+        }
+        if (powerOfTen == 0) {
+            return unscaledValue == Long.MIN_VALUE ? OVERFLOW : unscaledValue;
+        }
+        if (unscaledValue == 0) {
+            return 0;
+        }
+        if (powerOfTen >= POWERS_OF_TEN.length) {
+            return OVERFLOW;
+        }
+        long limit = Long.MAX_VALUE / POWERS_OF_TEN[(int) powerOfTen];
+        if (unscaledValue > limit || unscaledValue < -limit) {
+            return OVERFLOW;
+        }
+        return unscaledValue * POWERS_OF_TEN[(int) powerOfTen];
+    }
+
+    private static int numOfChunks(int size) {
+        return Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static int chunkStart(int chunk) {
+        return chunk * CHUNK_SIZE;
+    }
+
+    private static int chunkEnd(int chunk, int size) {
+        return Math.min(size, (chunk + 1) * CHUNK_SIZE);
+    }
+}
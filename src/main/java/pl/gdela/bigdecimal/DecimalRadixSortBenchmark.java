@@ -0,0 +1,100 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Compares sorting prices with {@link DecimalRadixSort} against {@link Arrays#parallelSort} of
+ * BigDecimals. The prices have two or four decimal places, so most of them need rescaling.
+ * <p>
+ * Sorts in place work on a fresh copy of the data, and copying is part of their measured time,
+ * argsort does not need it, as it does not change the data. Parallel sort of the arrays is run
+ * on the pool of given parallelism, same as radix sort, but note that it falls back to a sequential
+ * sort when the common pool has parallelism of one.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms24G", "-Xmx24G"})
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class DecimalRadixSortBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"1000000", "10000000", "100000000"})
+        int numOfDecimals;
+
+        @Param({"1", "4"})
+        int parallelism;
+
+        BigDecimal[] decimals;
+        DecimalColumn column;
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(0);
+            decimals = new BigDecimal[numOfDecimals];
+            for (int i = 0; i < numOfDecimals; i++) {
+                boolean fourPlaces = random.nextBoolean();
+                long price = random.nextInt(1_000_000_00);
+                decimals[i] = fourPlaces ? BigDecimal.valueOf(price * 100 + random.nextInt(100), 4) : BigDecimal.valueOf(price, 2);
+            }
+            column = DecimalColumn.of(decimals);
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public BigDecimal[] arrays_parallel_sort(MyState state) throws InterruptedException {
+        BigDecimal[] copy = state.decimals.clone();
+        state.pool.submit(() -> Arrays.parallelSort(copy)).join(); // forked tasks are run in the pool it's called from
+        return copy;
+    }
+
+    @Benchmark
+    public DecimalColumn radix_sort(MyState state) throws InterruptedException {
+        var copy = new DecimalColumn(state.column.unscaledValues().clone(), state.column.scales().clone());
+        DecimalRadixSort.sort(copy, state.pool);
+        return copy;
+    }
+
+    @Benchmark
+    public int[] radix_argsort(MyState state) throws InterruptedException {
+        return DecimalRadixSort.argsort(state.column, state.pool);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecimalRadixSortBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
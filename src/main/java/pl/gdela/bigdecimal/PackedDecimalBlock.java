@@ -0,0 +1,245 @@
+package pl.gdela.bigdecimal;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compressed block of decimals of the same scale, for time series like price ticks, where each
+ * value differs from the previous one by just a few units of the last digit.
+ * <p>
+ * Unscaled values are kept as the first one, called the base, followed by the differences between
+ * consecutive values. The differences are zig-zag encoded, so that small negative ones are small
+ * positive numbers, and bit-packed with the minimal width that fits all of them. So a block of
+ * ticks differing by less than eight units of the last digit takes four bits per value.
+ * <p>
+ * The minimum and maximum are kept in the header, so they are known without decoding, and
+ * the sum is computed straight from the packed differences, without expanding them to values.
+ */
+final class PackedDecimalBlock {
+
+    static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 8;
+
+    private final int size;
+    private final int scale;
+    private final int bitWidth;
+    private final long base;
+    private final long min;
+    private final long max;
+    private final long[] packed; // with one more word at the end, so that decoding never reads outside
+
+    private PackedDecimalBlock(int size, int scale, int bitWidth, long base, long min, long max, long[] packed) {
+        this.size = size;
+        this.scale = scale;
+        this.bitWidth = bitWidth;
+        this.base = base;
+        this.min = min;
+        this.max = max;
+        this.packed = packed;
+    }
+
+    /**
+     * Splits the column into blocks of given size, the last one may be smaller.
+     */
+    static PackedDecimalBlock[] encode(DecimalColumn column, int blockSize) {
+        checkArgument(blockSize > 0, "block size %s is not positive", blockSize);
+        PackedDecimalBlock[] blocks = new PackedDecimalBlock[(column.size() + blockSize - 1) / blockSize];
+        for (int i = 0; i < blocks.length; i++) {
+            int from = i * blockSize;
+            blocks[i] = encode(column, from, Math.min(blockSize, column.size() - from));
+        }
+        return blocks;
+    }
+
+    /**
+     * Encodes given range of the column. Decimals of smaller scale are rescaled to the biggest scale
+     * in the range, throws {@link ArithmeticException} if the rescaled value does not fit in a long.
+     */
+    static PackedDecimalBlock encode(DecimalColumn column, int from, int length) {
+        checkArgument(from >= 0 && length >= 0 && from + length <= column.size(),
+                "range %s+%s is out of column of size %s", from, length, column.size());
+        int scale = Integer.MIN_VALUE;
+        for (int i = from; i < from + length; i++) {
+            scale = Math.max(scale, column.scales()[i]);
+        }
+        long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = rescaled(column.unscaledValues()[from + i], scale - column.scales()[from + i]);
+        }
+        return encode(values, length == 0 ? 0 : scale);
+    }
+
+    private static PackedDecimalBlock encode(long[] values, int scale) {
+        long base = values.length == 0 ? 0 : values[0];
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long allBits = 0;
+        long previous = base;
+        for (long value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            allBits |= zigZag(value - previous); // may overflow, but decoding overflows back the same way
+            previous = value;
+        }
+        int bitWidth = Long.SIZE - Long.numberOfLeadingZeros(allBits);
+        long[] packed = new long[(int) (((long) values.length * bitWidth + 63) / 64) + 1];
+        previous = base;
+        for (int i = 0; i < values.length; i++) {
+            long bits = zigZag(values[i] - previous);
+            previous = values[i];
+            long bitPosition = (long) i * bitWidth;
+            int word = (int) (bitPosition >>> 6);
+            int offset = (int) (bitPosition & 63);
+            packed[word] |= bits << offset;
+            if (offset + bitWidth > 64) {
+                packed[word + 1] |= bits >>> (64 - offset);
+            }
+        }
+        return new PackedDecimalBlock(values.length, scale, bitWidth, base, min, max, packed);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int scale() {
+        return scale;
+    }
+
+    int bitWidth() {
+        return bitWidth;
+    }
+
+    /**
+     * Decodes unscaled values of the block into given buffer, which has to be at least of {@link #size()}.
+     * All values are of the {@link #scale()} of the block.
+     */
+    void decode(long[] buffer) {
+        checkArgument(buffer.length >= size, "buffer of %s is too small for %s values", buffer.length, size);
+        if (bitWidth == 0) {
+            // all differences are zero, so nothing is packed, and there is no word to read the bits from
+            Arrays.fill(buffer, 0, size, base);
+            return;
+        }
+        long mask = -1L >>> (64 - bitWidth);
+        // unpacking the differences does not depend on previous ones, so it is done in a separate loop
+        for (int i = 0; i < size; i++) {
+            buffer[i] = unZigZag(bitsAt((long) i * bitWidth, mask));
+        }
+        long value = base;
+        for (int i = 0; i < size; i++) {
+            value += buffer[i];
+            buffer[i] = value;
+        }
+    }
+
+    /**
+     * Returns decoded decimals of the block, in the compact, non-inflated form.
+     */
+    BigDecimal[] toDecimals() {
+        long[] buffer = new long[size];
+        decode(buffer);
+        BigDecimal[] decimals = new BigDecimal[size];
+        for (int i = 0; i < size; i++) {
+            decimals[i] = BigDecimal.valueOf(buffer[i], scale);
+        }
+        return decimals;
+    }
+
+    /**
+     * Returns sum of unscaled values, so the sum at the {@link #scale()} of the block. The sum may overflow,
+     * same as when adding longs, which is not detected, but if the sum fits in a long, it is correct.
+     */
+    long sumUnscaled() {
+        long sum = base * size;
+        if (bitWidth == 0) {
+            return sum;
+        }
+        // each difference adds to its own value and to all values after it
+        long mask = -1L >>> (64 - bitWidth);
+        long bitPosition = 0;
+        for (int i = 0; i < size; i++) {
+            sum += unZigZag(bitsAt(bitPosition, mask)) * (size - i);
+            bitPosition += bitWidth;
+        }
+        return sum;
+    }
+
+    BigDecimal sum() {
+        return BigDecimal.valueOf(sumUnscaled(), scale);
+    }
+
+    BigDecimal min() {
+        checkArgument(size > 0, "no minimum of empty block");
+        return BigDecimal.valueOf(min, scale);
+    }
+
+    BigDecimal max() {
+        checkArgument(size > 0, "no maximum of empty block");
+        return BigDecimal.valueOf(max, scale);
+    }
+
+    /**
+     * Returns number of bytes the block takes when written with {@link #writeTo}.
+     */
+    int sizeInBytes() {
+        return HEADER_SIZE + packedWords() * 8;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size).putInt(scale).put((byte) bitWidth).putLong(base).putLong(min).putLong(max);
+        for (int i = 0; i < packedWords(); i++) {
+            buffer.putLong(packed[i]);
+        }
+    }
+
+    static PackedDecimalBlock readFrom(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        int scale = buffer.getInt();
+        int bitWidth = buffer.get();
+        long base = buffer.getLong();
+        long min = buffer.getLong();
+        long max = buffer.getLong();
+        long[] packed = new long[(int) (((long) size * bitWidth + 63) / 64) + 1];
+        for (int i = 0; i < packed.length - 1; i++) {
+            packed[i] = buffer.getLong();
+        }
+        return new PackedDecimalBlock(size, scale, bitWidth, base, min, max, packed);
+    }
+
+    private int packedWords() {
+        return packed.length - 1;
+    }
+
+    /**
+     * Reads bits at given position, even if they span two words, without branching.
+     */
+    private long bitsAt(long bitPosition, long mask) {
+        int word = (int) (bitPosition >>> 6);
+        int offset = (int) (bitPosition & 63);
+        // shifting in two steps, as shift by 64 would be no shift at all
+        long high = (packed[word + 1] << 1) << (63 - offset);
+        return ((packed[word] >>> offset) | high) & mask;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long bits) {
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    private static long rescaled(long unscaledValue, int powerOfTen) {
+        if (unscaledValue == 0) {
+            return 0;
+        }
+        long rescaled = unscaledValue;
+        for (int i = 0; i < powerOfTen; i++) {
+            rescaled = Math.multiplyExact(rescaled, 10);
+        }
+        return rescaled;
+    }
+}
@@ -0,0 +1,135 @@
+package pl.gdela.bigdecimal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.AuxCounters.Type.EVENTS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+/**
+ * Measures decoding and summing of {@link PackedDecimalBlock}s with synthetic price ticks: a random
+ * walk, mostly by a few units of the last digit, with occasional bigger jumps. Reported as secondary
+ * results are the bytes of decoded unscaled values, in bytes per second, and the compression ratio,
+ * which is the size of the ticks kept as unscaled long and scale, to the size of the packed blocks.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+public class PackedDecimalBlockBenchmark {
+
+    private static final int NUM_OF_TICKS = 1_000_000;
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"128", "1024"})
+        int blockSize;
+
+        DecimalColumn ticks;
+        PackedDecimalBlock[] blocks;
+        long[] buffer;
+        double compressionRatio;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(0);
+            ticks = new DecimalColumn(NUM_OF_TICKS);
+            long price = 100_0000;
+            for (int i = 0; i < NUM_OF_TICKS; i++) {
+                price += random.nextInt(100) == 0 ? random.nextInt(2001) - 1000 : random.nextInt(11) - 5;
+                ticks.set(i, price, 4);
+            }
+            blocks = PackedDecimalBlock.encode(ticks, blockSize);
+            buffer = new long[blockSize];
+            long packedSize = 0;
+            for (PackedDecimalBlock block : blocks) {
+                packedSize += block.sizeInBytes();
+            }
+            compressionRatio = (double) NUM_OF_TICKS * (8 + 4) / packedSize;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(EVENTS)
+    public static class Compression {
+        public double compressionRatio;
+
+        @TearDown(Level.Iteration)
+        public void tearDown(MyState state, IterationParams iterationParams) {
+            // averaged over iterations, as in BigDecimalSerializationBenchmark
+            compressionRatio = state.compressionRatio / iterationParams.getCount();
+        }
+    }
+
+    @Benchmark
+    public long decode(MyState state, BytesCounter bytes, Compression compression) throws InterruptedException {
+        long checksum = 0;
+        for (PackedDecimalBlock block : state.blocks) {
+            block.decode(state.buffer);
+            checksum += state.buffer[0];
+        }
+        bytes.bytes += NUM_OF_TICKS * 8L;
+        return checksum;
+    }
+
+    @Benchmark
+    public long sum_packed(MyState state, BytesCounter bytes, Compression compression) throws InterruptedException {
+        long sum = 0;
+        for (PackedDecimalBlock block : state.blocks) {
+            sum += block.sumUnscaled();
+        }
+        bytes.bytes += NUM_OF_TICKS * 8L;
+        return sum;
+    }
+
+    @Benchmark
+    public long sum_decoded(MyState state, BytesCounter bytes, Compression compression) throws InterruptedException {
+        long sum = 0;
+        for (PackedDecimalBlock block : state.blocks) {
+            block.decode(state.buffer);
+            for (int i = 0; i < block.size(); i++) {
+                sum += state.buffer[i];
+            }
+        }
+        bytes.bytes += NUM_OF_TICKS * 8L;
+        return sum;
+    }
+
+    @Benchmark
+    public long sum_uncompressed(MyState state, BytesCounter bytes, Compression compression) throws InterruptedException {
+        long[] unscaledValues = state.ticks.unscaledValues();
+        long sum = 0;
+        for (int i = 0; i < unscaledValues.length; i++) {
+            sum += unscaledValues[i];
+        }
+        bytes.bytes += NUM_OF_TICKS * 8L;
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(PackedDecimalBlockBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
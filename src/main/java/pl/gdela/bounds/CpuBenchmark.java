@@ -41,6 +41,51 @@ public class CpuBenchmark {
         return CpuHeavy.sum_with_8_vars();
     }
 
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public long sum_with_vector() throws InterruptedException {
+        return CpuHeavyVector.sum();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public long sum_with_2_vectors() throws InterruptedException {
+        return CpuHeavyVector.sum_with_2_vectors();
+    }
+
+    @Benchmark
+    public long dot_product() throws InterruptedException {
+        return CpuHeavy.dot_product();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public long dot_product_with_vector() throws InterruptedException {
+        return CpuHeavyVector.dot_product();
+    }
+
+    @Benchmark
+    public long min_max() throws InterruptedException {
+        return CpuHeavy.min_max();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public long min_max_with_vector() throws InterruptedException {
+        return CpuHeavyVector.min_max();
+    }
+
+    @Benchmark
+    public long conditional_sum() throws InterruptedException {
+        return CpuHeavy.conditional_sum();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public long conditional_sum_with_vector() throws InterruptedException {
+        return CpuHeavyVector.conditional_sum();
+    }
+
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
                 .include(CpuBenchmark.class.getSimpleName())
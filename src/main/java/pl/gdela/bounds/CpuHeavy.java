@@ -5,6 +5,19 @@ public class CpuHeavy {
     private static final long SUM_FROM = 0;
     public static final long SUM_TO = 1_000_000;
 
+    // small enough to stay in L1 cache, so that reductions over them are bound by CPU, not by memory
+    static final long[] VALUES = new long[4096];
+    static final long[] WEIGHTS = new long[4096];
+    static final int ROUNDS = (int) (SUM_TO / VALUES.length); // so that about the same number of values is reduced as in sum
+    static {
+        long seed = 42;
+        for (int i = 0; i < VALUES.length; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L; // LCG, the same values on every run
+            VALUES[i] = (seed >> 40) % 1_000_000;
+            WEIGHTS[i] = (seed >> 20) % 1000;
+        }
+    }
+
     static long sum() {
         return sum_with_one_var();
     }
@@ -80,4 +93,38 @@ public class CpuHeavy {
         }
         return sum1 + sum2 + sum3 + sum4 + sum5 + sum6 + sum7 + sum8;
     }
+
+    static long dot_product() {
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i++) {
+                sum += VALUES[i] * WEIGHTS[i];
+            }
+        }
+        return sum;
+    }
+
+    static long min_max() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i++) {
+                min = Math.min(min, VALUES[i] + round);
+                max = Math.max(max, VALUES[i] + round);
+            }
+        }
+        return max - min;
+    }
+
+    static long conditional_sum() {
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i++) {
+                if (WEIGHTS[i] > 0) {
+                    sum += VALUES[i];
+                }
+            }
+        }
+        return sum;
+    }
 }
@@ -0,0 +1,131 @@
+package pl.gdela.bounds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.LongStream;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * The sum of {@link CpuHeavy} split into parts summed on many cores, in three ways: with fork/join tasks,
+ * with a parallel stream, and with a fixed pool of platform threads. Each takes the size of the problem,
+ * so that it can be seen from which size splitting pays off, and the methods without arguments sum up to
+ * {@link CpuHeavy#SUM_TO} on all cores, so that they can be targets of {@link Measure}.
+ */
+public class CpuHeavyParallel {
+
+    // below that forking costs more than summing, it's about a hundred of microseconds of work
+    private static final long FORK_THRESHOLD = 100_000;
+
+    private static final ForkJoinPool commonPool = ForkJoinPool.commonPool();
+    private static final ExecutorService threadPool = newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "cpu-heavy");
+                thread.setDaemon(true); // so that the pool does not keep JVM running after measurement
+                return thread;
+            }
+    );
+
+    static long sum_with_fork_join() {
+        return sum_with_fork_join(commonPool, CpuHeavy.SUM_TO);
+    }
+
+    static long sum_with_parallel_stream() {
+        return sum_with_parallel_stream(commonPool, CpuHeavy.SUM_TO);
+    }
+
+    static long sum_with_thread_pool() {
+        return sum_with_thread_pool(threadPool, Runtime.getRuntime().availableProcessors(), CpuHeavy.SUM_TO);
+    }
+
+    /**
+     * Sums the range the same way as {@link CpuHeavy#sum_with_4_vars()}, it's what every part does.
+     */
+    static long sum_range(long from, long to) {
+        long sum1 = 0;
+        long sum2 = 0;
+        long sum3 = 0;
+        long sum4 = 0;
+        long i = from;
+        for (; i <= to - 4; i += 4) {
+            sum1 += i;
+            sum2 += i+1;
+            sum3 += i+2;
+            sum4 += i+3;
+        }
+        for (; i < to; i++) {
+            sum1 += i;
+        }
+        return sum1 + sum2 + sum3 + sum4;
+    }
+
+    static long sum_with_fork_join(ForkJoinPool pool, long size) {
+        return pool.invoke(new SumTask(0, size));
+    }
+
+    /**
+     * The baseline of {@link #sum_with_parallel_stream}, as a stream sums with another kernel than {@link #sum_range}.
+     */
+    static long sum_with_sequential_stream(long size) {
+        return LongStream.range(0, size).sum();
+    }
+
+    static long sum_with_parallel_stream(ForkJoinPool pool, long size) {
+        // a parallel stream forks its tasks in the pool it's called from, so it uses the parallelism of that pool
+        return pool.submit(() -> LongStream.range(0, size).parallel().sum()).join();
+    }
+
+    /**
+     * Splits the range into given number of equal parts, and sums each part as a task of the pool.
+     */
+    static long sum_with_thread_pool(ExecutorService pool, int parts, long size) {
+        List<Future<Long>> futures = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            long from = size * i / parts;
+            long to = size * (i + 1) / parts;
+            futures.add(pool.submit(() -> sum_range(from, to)));
+        }
+        long sum = 0;
+        try {
+            for (Future<Long> future : futures) {
+                sum += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return sum;
+    }
+
+    private static class SumTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+
+        SumTask(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                return sum_range(from, to);
+            }
+            long middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            left.fork();
+            long right = new SumTask(middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package pl.gdela.bounds;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.ADD;
+import static jdk.incubator.vector.VectorOperators.GT;
+import static jdk.incubator.vector.VectorOperators.MAX;
+import static jdk.incubator.vector.VectorOperators.MIN;
+import static pl.gdela.bounds.CpuHeavy.ROUNDS;
+import static pl.gdela.bounds.CpuHeavy.SUM_TO;
+import static pl.gdela.bounds.CpuHeavy.VALUES;
+import static pl.gdela.bounds.CpuHeavy.WEIGHTS;
+
+/**
+ * The kernels of {@link CpuHeavy} written with the Vector API, with the widest vectors that this CPU has,
+ * so that each instruction adds as many longs as there are lanes. Needs {@code --add-modules jdk.incubator.vector}.
+ */
+public class CpuHeavyVector {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    static long sum() {
+        LongVector step = LongVector.broadcast(SPECIES, SPECIES.length());
+        LongVector values = LongVector.zero(SPECIES).addIndex(1); // 0, 1, 2, ... as many as there are lanes
+        LongVector sums = LongVector.zero(SPECIES);
+        long i = 0;
+        for (; i <= SUM_TO - SPECIES.length(); i += SPECIES.length()) {
+            sums = sums.add(values);
+            values = values.add(step);
+        }
+        long sum = sums.reduceLanes(ADD);
+        for (; i < SUM_TO; i++) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    static long sum_with_2_vectors() {
+        LongVector step = LongVector.broadcast(SPECIES, 2L * SPECIES.length());
+        LongVector values1 = LongVector.zero(SPECIES).addIndex(1);
+        LongVector values2 = values1.add(SPECIES.length());
+        LongVector sums1 = LongVector.zero(SPECIES);
+        LongVector sums2 = LongVector.zero(SPECIES);
+        long i = 0;
+        for (; i <= SUM_TO - 2L * SPECIES.length(); i += 2L * SPECIES.length()) {
+            sums1 = sums1.add(values1);
+            sums2 = sums2.add(values2);
+            values1 = values1.add(step);
+            values2 = values2.add(step);
+        }
+        long sum = sums1.add(sums2).reduceLanes(ADD);
+        for (; i < SUM_TO; i++) {
+            sum += i;
+        }
+        return sum;
+    }
+
+    static long dot_product() {
+        // the length of values is a multiple of any number of lanes, so there's no tail
+        LongVector sums = LongVector.zero(SPECIES);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i += SPECIES.length()) {
+                var values = LongVector.fromArray(SPECIES, VALUES, i);
+                var weights = LongVector.fromArray(SPECIES, WEIGHTS, i);
+                sums = sums.add(values.mul(weights));
+            }
+        }
+        return sums.reduceLanes(ADD);
+    }
+
+    static long min_max() {
+        LongVector mins = LongVector.broadcast(SPECIES, Long.MAX_VALUE);
+        LongVector maxs = LongVector.broadcast(SPECIES, Long.MIN_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i += SPECIES.length()) {
+                var values = LongVector.fromArray(SPECIES, VALUES, i).add(round);
+                mins = mins.min(values);
+                maxs = maxs.max(values);
+            }
+        }
+        return maxs.reduceLanes(MAX) - mins.reduceLanes(MIN);
+    }
+
+    static long conditional_sum() {
+        LongVector sums = LongVector.zero(SPECIES);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < VALUES.length; i += SPECIES.length()) {
+                VectorMask<Long> positive = LongVector.fromArray(SPECIES, WEIGHTS, i).compare(GT, 0);
+                sums = sums.add(LongVector.fromArray(SPECIES, VALUES, i), positive); // lanes not in mask are left as they are
+            }
+        }
+        return sums.reduceLanes(ADD);
+    }
+}
@@ -4,23 +4,40 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.util.concurrent.Uninterruptibles.awaitTerminationUninterruptibly;
+import static java.lang.System.nanoTime;
 import static java.lang.System.out;
 import static java.lang.Thread.currentThread;
 import static java.math.BigDecimal.ZERO;
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class CpuHog {
 
-    private enum GcPressure { HIGH_GC, LOW_GC }
+    /**
+     * What the hog does: keeps the CPU busy with or without garbage, pollutes the last level cache
+     * with random accesses to a buffer of its size, saturates memory bandwidth by streaming through
+     * a buffer much bigger than the cache, or allocates garbage at given rate.
+     */
+    private enum Profile { HIGH_GC, LOW_GC, CACHE_THRASH, MEMORY_STREAM, ALLOCATION }
+
+    private static final Path LLC_SIZE = Path.of("/sys/devices/system/cpu/cpu0/cache/index3/size");
+    private static final long DEFAULT_LLC_SIZE = 8 << 20;
 
     @Parameter(names = "-t", required = true, description = "Number of threads")
     private int numberOfThreads;
@@ -28,8 +45,23 @@ public class CpuHog {
     @Parameter(names = "-d", required = true, description = "Duration in seconds")
     private int duration;
 
-    @Parameter(names = "-g", description = "Level of GC pressure, either HIGH_GC or LOW_GC")
-    private GcPressure gc = GcPressure.LOW_GC;
+    @Parameter(names = { "-g", "-p" }, description = "Profile of the hog, one of HIGH_GC, LOW_GC, CACHE_THRASH, MEMORY_STREAM, ALLOCATION")
+    private Profile profile = Profile.LOW_GC;
+
+    @Parameter(names = "-b", description = "Size of buffer of each thread in MB, by default size of LLC for CACHE_THRASH, and 4 times that for MEMORY_STREAM")
+    private double bufferSize = 0;
+
+    @Parameter(names = "-a", description = "Allocation rate of all threads together in MB/s, for ALLOCATION, on average including the time of sleeping in duty cycle")
+    private double allocationRate = 100;
+
+    @Parameter(names = "-c", description = "Fraction of each period in which the hog works, it sleeps for the rest")
+    private double dutyCycle = 1;
+
+    @Parameter(names = "-r", description = "Period of duty cycle in milliseconds")
+    private double period = 100;
+
+    @Parameter(names = "-i", description = "Interval in seconds of printing the rate achieved so far, zero for printing it only at the end")
+    private double reportInterval = 10;
 
     public static void main(String[] args) throws Throwable {
         CpuHog main = new CpuHog();
@@ -38,15 +70,34 @@ public class CpuHog {
     }
 
     private void run() throws ExecutionException, InterruptedException {
+        checkArgument(dutyCycle > 0 && dutyCycle <= 1, "duty cycle %s is not in (0, 1]", dutyCycle);
+        long bufferBytes = bufferBytes();
+        if (bufferBytes > 0) {
+            out.printf("llc of %.1f MB, buffer of %.1f MB in each thread%n", llcSize() / 1024.0 / 1024.0, bufferBytes / 1024.0 / 1024.0);
+        }
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("cpu-hog-%d").build();
         var executor = newFixedThreadPool(numberOfThreads, threadFactory);
 
+        List<Hog> hogs = new ArrayList<>();
         List<Future<BigDecimal>> results = new ArrayList<>();
         for (int i = 0; i < numberOfThreads; i++) {
-            results.add(executor.submit(this::hog));
+            Hog hog = new Hog(bufferBytes);
+            hogs.add(hog);
+            results.add(executor.submit(hog::hog));
+        }
+        // hogs are usually killed before the duration passes, so the rate is printed as it goes, and when terminated
+        var reporter = newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("cpu-hog-reporter").setDaemon(true).build());
+        if (reportInterval > 0) {
+            long intervalMillis = (long) (reportInterval * 1000);
+            reporter.scheduleAtFixedRate(() -> printAchieved(hogs, "so far"), intervalMillis, intervalMillis, MILLISECONDS);
         }
+        var finished = new AtomicBoolean();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (!finished.get()) printAchieved(hogs, "when terminated");
+        }));
 
         Thread.sleep(Duration.ofSeconds(duration));
+        reporter.shutdownNow();
         executor.shutdownNow();
 
         BigDecimal sum = ZERO;
@@ -56,31 +107,148 @@ public class CpuHog {
         out.printf("dummy result is %s%n", sum);
 
         awaitTerminationUninterruptibly(executor);
+        finished.set(true);
+        printAchieved(hogs, "in total");
     }
 
-    private BigDecimal hog() {
-        return switch (gc) {
-            case HIGH_GC -> highGcHog();
-            case LOW_GC -> lowGcHog();
+    private long bufferBytes() {
+        return switch (profile) {
+            case CACHE_THRASH -> bufferSize > 0 ? (long) (bufferSize * 1024 * 1024) : llcSize();
+            case MEMORY_STREAM -> bufferSize > 0 ? (long) (bufferSize * 1024 * 1024) : 4 * llcSize();
+            default -> 0;
         };
     }
 
-    private static BigDecimal highGcHog() {
-        BigDecimal value = BigDecimal.valueOf(Long.MAX_VALUE);
-        while (!currentThread().isInterrupted()) {
-            value = value.add(BigDecimal.ONE);
+    private static long llcSize() {
+        try {
+            String size = Files.readString(LLC_SIZE).trim(); // like 8192K
+            long multiplier = size.endsWith("K") ? 1024 : size.endsWith("M") ? 1024 * 1024 : 1;
+            return Long.parseLong(size.replaceAll("[KM]$", "")) * multiplier;
+        } catch (IOException | RuntimeException e) {
+            return DEFAULT_LLC_SIZE; // not on linux, or the cache is not described
         }
-        return value;
     }
 
-    private static BigDecimal lowGcHog() {
-        long value = 1;
-        while (!currentThread().isInterrupted()) {
-            for (long j = 0; j < 100; j++) {
-                value += value * j;
+    /**
+     * Prints the rate of work that the hogs actually achieved since they started, so that it's known how much
+     * interference there was. May be called while they are still working.
+     */
+    private synchronized void printAchieved(List<Hog> hogs, String when) {
+        double totalRate = 0;
+        for (int i = 0; i < hogs.size(); i++) {
+            Hog hog = hogs.get(i);
+            long startTime = hog.startTime;
+            long finishTime = hog.finishTime != 0 ? hog.finishTime : nanoTime();
+            if (startTime == 0 || finishTime == startTime) {
+                continue; // not started yet
             }
+            double seconds = (finishTime - startTime) / 1e9;
+            double rate = hog.units / seconds;
+            totalRate += rate;
+            out.printf("thread %d %s: %s, working %.1f%% of %.1f s%n",
+                    i,
+                    when,
+                    describeRate(rate),
+                    100.0 * hog.workTime / (finishTime - startTime),
+                    seconds
+            );
         }
-        return BigDecimal.valueOf(value);
+        out.printf("all threads %s: %s%n", when, describeRate(totalRate));
     }
 
+    private String describeRate(double rate) {
+        return switch (profile) {
+            case HIGH_GC -> String.format("%.1f million BigDecimal additions/s", rate / 1e6);
+            case LOW_GC -> String.format("%.1f million multiplications/s", rate / 1e6);
+            case CACHE_THRASH -> String.format("%.1f million random accesses/s", rate / 1e6);
+            case MEMORY_STREAM -> String.format("%.1f MB/s read", rate / 1024 / 1024);
+            case ALLOCATION -> String.format("%.1f MB/s allocated (target %.1f MB/s of all threads)", rate / 1024 / 1024, allocationRate);
+        };
+    }
+
+    /**
+     * Work of one thread, done in small chunks, so that the duty cycle is kept, and the work is counted.
+     */
+    private class Hog {
+        private final long[] buffer;
+        private final byte[][] garbage = new byte[1024][]; // kept for a while, so that allocation is not eliminated
+        // written once per chunk of work, and read by the reporter while the hog works
+        private volatile long units;
+        private volatile long workTime;
+        private volatile long startTime;
+        private volatile long finishTime;
+
+        Hog(long bufferBytes) {
+            buffer = new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, bufferBytes / 8))];
+        }
+
+        BigDecimal hog() {
+            startTime = nanoTime();
+            long periodTime = (long) (period * 1_000_000);
+            long onTime = (long) (periodTime * dutyCycle);
+            double allocatedBytesPerNano = allocationRate * 1024 * 1024 / numberOfThreads / 1e9;
+            BigDecimal highGcValue = BigDecimal.valueOf(Long.MAX_VALUE);
+            long value = 1;
+            long position = 0;
+            while (!currentThread().isInterrupted()) {
+                long chunkStartTime = nanoTime();
+                long inPeriod = (chunkStartTime - startTime) % periodTime;
+                if (inPeriod >= onTime) {
+                    LockSupport.parkNanos(periodTime - inPeriod);
+                    continue;
+                }
+                if (profile == Profile.ALLOCATION && units >= (chunkStartTime - startTime) * allocatedBytesPerNano) {
+                    LockSupport.parkNanos(100_000); // ahead of the target rate
+                    continue;
+                }
+                switch (profile) {
+                    case HIGH_GC -> {
+                        for (int i = 0; i < 1000; i++) {
+                            highGcValue = highGcValue.add(BigDecimal.ONE);
+                        }
+                        units += 1000;
+                    }
+                    case LOW_GC -> {
+                        for (int i = 0; i < 100; i++) {
+                            for (long j = 0; j < 100; j++) {
+                                value += value * j;
+                            }
+                        }
+                        units += 100 * 100;
+                    }
+                    case CACHE_THRASH -> {
+                        for (int i = 0; i < 10_000; i++) {
+                            value ^= value << 13; // xorshift, so that accesses are random and can't be prefetched
+                            value ^= value >>> 7;
+                            value ^= value << 17;
+                            int index = (int) ((value & Long.MAX_VALUE) % buffer.length);
+                            buffer[index] += value; // written, so that cache lines are dirty and have to be written back
+                        }
+                        units += 10_000;
+                    }
+                    case MEMORY_STREAM -> {
+                        int from = (int) position;
+                        int to = Math.min(from + 128 * 1024, buffer.length);
+                        for (int i = from; i < to; i++) {
+                            value += buffer[i];
+                        }
+                        position = to == buffer.length ? 0 : to;
+                        units += (to - from) * 8L;
+                    }
+                    case ALLOCATION -> {
+                        long allocated = units;
+                        for (int i = 0; i < 64; i++) {
+                            byte[] bytes = new byte[1024];
+                            garbage[(int) ((allocated / 1024) % garbage.length)] = bytes;
+                            allocated += bytes.length + 16; // with the header of the array
+                        }
+                        units = allocated;
+                    }
+                }
+                workTime += nanoTime() - chunkStartTime;
+            }
+            finishTime = nanoTime();
+            return highGcValue.add(BigDecimal.valueOf(value));
+        }
+    }
 }
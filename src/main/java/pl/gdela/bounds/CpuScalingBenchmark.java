@@ -0,0 +1,148 @@
+package pl.gdela.bounds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.System.out;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+/**
+ * Measures how the sum of {@link CpuHeavyParallel} scales with the number of cores, from sizes at which
+ * splitting the work costs more than doing it, up to a hundred times {@link CpuHeavy#SUM_TO}. After the
+ * benchmarks, main() prints the speedup against the sequential sum of the same size and the same kernel,
+ * so the parallel stream against the sequential stream, and the others against the sum with 4 variables,
+ * the efficiency, that is the speedup per core, and for each way and parallelism the smallest size at
+ * which it pays off. Sequential sums don't depend on parallelism, so they are measured only for each size.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+public class CpuScalingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SizeState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
+        long size;
+    }
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
+        long size;
+
+        @Param({"1", "2", "4", "8"})
+        int parallelism;
+
+        ForkJoinPool forkJoinPool;
+        ExecutorService threadPool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            forkJoinPool = new ForkJoinPool(parallelism);
+            threadPool = newFixedThreadPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            forkJoinPool.shutdown();
+            threadPool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long sequential(SizeState state) throws InterruptedException {
+        return CpuHeavyParallel.sum_range(0, state.size);
+    }
+
+    @Benchmark
+    public long sequential_stream(SizeState state) throws InterruptedException {
+        return CpuHeavyParallel.sum_with_sequential_stream(state.size);
+    }
+
+    @Benchmark
+    public long fork_join(MyState state) throws InterruptedException {
+        return CpuHeavyParallel.sum_with_fork_join(state.forkJoinPool, state.size);
+    }
+
+    @Benchmark
+    public long parallel_stream(MyState state) throws InterruptedException {
+        return CpuHeavyParallel.sum_with_parallel_stream(state.forkJoinPool, state.size);
+    }
+
+    @Benchmark
+    public long thread_pool(MyState state) throws InterruptedException {
+        return CpuHeavyParallel.sum_with_thread_pool(state.threadPool, state.parallelism, state.size);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CpuScalingBenchmark.class.getSimpleName())
+                .build();
+        Collection<RunResult> results = new Runner(opt).run();
+        printScaling(results);
+    }
+
+    private static void printScaling(Collection<RunResult> results) {
+        Map<String, Double> sequentialTimes = new TreeMap<>(); // by baseline and size
+        for (RunResult result : results) {
+            if (result.getParams().getParam("parallelism") == null) {
+                sequentialTimes.put(method(result) + " " + size(result), result.getPrimaryResult().getScore());
+            }
+        }
+
+        out.printf("%n%-16s %-18s %12s %12s %12s %10s %10s%n", "way", "baseline", "parallelism", "size", "time us", "speedup", "efficiency");
+        Map<String, Long> breakEven = new TreeMap<>();
+        for (RunResult result : results) {
+            String method = method(result);
+            String baseline = method.equals("parallel_stream") ? "sequential_stream" : "sequential";
+            Double sequentialTime = sequentialTimes.get(baseline + " " + size(result));
+            if (result.getParams().getParam("parallelism") == null || sequentialTime == null) {
+                continue;
+            }
+            int parallelism = Integer.parseInt(result.getParams().getParam("parallelism"));
+            double time = result.getPrimaryResult().getScore();
+            double speedup = sequentialTime / time;
+            out.printf("%-16s %-18s %12d %12d %12.3f %10.2f %9.0f%%%n",
+                    method, baseline, parallelism, size(result), time, speedup, 100 * speedup / parallelism);
+            String key = String.format("%-16s %12d", method, parallelism);
+            breakEven.merge(key, speedup > 1 ? size(result) : Long.MAX_VALUE, Math::min);
+        }
+
+        out.printf("%n%-16s %12s %s%n", "way", "parallelism", "smallest size faster than its baseline");
+        breakEven.forEach((key, size) -> out.printf("%s %s%n", key, size == Long.MAX_VALUE ? "none" : size));
+    }
+
+    private static String method(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        return benchmark.substring(benchmark.lastIndexOf('.') + 1);
+    }
+
+    private static long size(RunResult result) {
+        return Long.parseLong(result.getParams().getParam("size"));
+    }
+}
@@ -0,0 +1,84 @@
+package pl.gdela.bounds;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Writes call times as a series of histograms, one per interval, so that in long runs drift, periodic
+ * stalls and warmup tails are not hidden in one distribution of the whole run. Measuring threads record
+ * to a {@link Recorder}, which never blocks them, and a background thread takes its interval histogram
+ * and writes it, tagged with the name of the execution, to a log readable by {@link IntervalHistogramReport}.
+ */
+class IntervalHistogramLog implements AutoCloseable {
+
+    private final String fileName;
+    private final String tag;
+    private final Recorder recorder = new Recorder(1, 3600_000_000_000L, 3);
+    private final PrintStream log;
+    private final HistogramLogWriter writer;
+    private final ScheduledExecutorService scheduler;
+    private Histogram intervalHistogram; // reused, so that taking an interval does not allocate
+
+    IntervalHistogramLog(String name, double intervalSeconds) throws FileNotFoundException {
+        this.fileName = "histogram-" + name + ".hlog";
+        this.tag = name;
+        this.log = new PrintStream(fileName);
+        this.writer = new HistogramLogWriter(log);
+        long now = System.currentTimeMillis();
+        writer.outputComment("call times of " + name + " in nanoseconds, every " + intervalSeconds + " s");
+        writer.outputLogFormatVersion();
+        writer.outputStartTime(now);
+        writer.setBaseTime(now);
+        writer.outputLegend();
+        var threadFactory = new ThreadFactoryBuilder().setNameFormat("interval-log-" + name).setDaemon(true).build();
+        this.scheduler = newSingleThreadScheduledExecutor(threadFactory);
+        long intervalMillis = Math.max(1, (long) (intervalSeconds * 1000));
+        scheduler.scheduleAtFixedRate(this::writeInterval, intervalMillis, intervalMillis, MILLISECONDS);
+    }
+
+    /**
+     * Records time of a call, which may be the average of given number of calls timed together.
+     * Safe to be called by many threads at once, and wait-free.
+     */
+    void recordValue(long sampleTime, long count) {
+        recorder.recordValueWithCount(sampleTime, count);
+    }
+
+    String fileName() {
+        return fileName;
+    }
+
+    private synchronized void writeInterval() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        intervalHistogram.setTag(tag);
+        writer.outputIntervalHistogram(intervalHistogram);
+        log.flush(); // so that the log can be looked at while the run goes on
+    }
+
+    /**
+     * Stops the background thread, and writes what was recorded after the last full interval. If interrupted
+     * while waiting for the thread, keeps the interrupt flag set, and stops the thread without waiting.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+        }
+        writeInterval(); // synchronized, so it does not interleave with a write the thread may still be doing
+        log.close();
+    }
+}
@@ -0,0 +1,89 @@
+package pl.gdela.bounds;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+import static java.lang.System.out;
+
+/**
+ * Reads a log written by {@link Measure} with interval histograms, and prints the median, the 99th
+ * percentile and the maximum of each interval, then the histogram of all intervals of given time window
+ * merged together, so that for example the warmup tail or the time of a stall can be looked at alone.
+ */
+public class IntervalHistogramReport {
+
+    @Parameter(description = "Log with interval histograms, for example histogram-main.hlog", required = true)
+    private String fileName;
+
+    @Parameter(names = "-f", description = "Start of time window in seconds from start of the log")
+    private double from = 0;
+
+    @Parameter(names = "-u", description = "End of time window in seconds from start of the log")
+    private double until = Double.MAX_VALUE;
+
+    @Parameter(names = "-g", description = "Tag of histograms to read, if the log has histograms of many executions")
+    private String tag;
+
+    @Parameter(names = "-p", description = "File to write percentile distribution of merged histogram to")
+    private String mergedFileName;
+
+    public static void main(String[] args) throws FileNotFoundException {
+        IntervalHistogramReport main = new IntervalHistogramReport();
+        JCommander.newBuilder().addObject(main).build().parse(args);
+        main.run();
+    }
+
+    private void run() throws FileNotFoundException {
+        double scalingRatio = 1_000_000.0;
+        var reader = new HistogramLogReader(fileName);
+        Histogram merged = null;
+        int intervals = 0;
+        out.printf("%10s %10s %10s %12s %12s %12s%n", "from s", "until s", "count", "p50 ms", "p99 ms", "max ms");
+        EncodableHistogram encoded;
+        while ((encoded = reader.nextIntervalHistogram(from, until)) != null) {
+            if (tag != null && !tag.equals(encoded.getTag())) {
+                continue;
+            }
+            var histogram = (Histogram) encoded;
+            out.printf("%10.3f %10.3f %10d %12.3f %12.3f %12.3f%n",
+                    histogram.getStartTimeStamp() / 1000.0 - reader.getStartTimeSec(),
+                    histogram.getEndTimeStamp() / 1000.0 - reader.getStartTimeSec(),
+                    histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / scalingRatio,
+                    histogram.getValueAtPercentile(99) / scalingRatio,
+                    histogram.getMaxValue() / scalingRatio
+            );
+            if (merged == null) {
+                merged = histogram.copy();
+            } else {
+                merged.add(histogram);
+            }
+            intervals++;
+        }
+        if (merged == null) {
+            out.printf("no intervals in the time window%n");
+            return;
+        }
+        out.printf("%d intervals merged: count %d, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                intervals,
+                merged.getTotalCount(),
+                merged.getValueAtPercentile(50) / scalingRatio,
+                merged.getValueAtPercentile(90) / scalingRatio,
+                merged.getValueAtPercentile(99) / scalingRatio,
+                merged.getValueAtPercentile(99.9) / scalingRatio,
+                merged.getMaxValue() / scalingRatio
+        );
+        if (mergedFileName != null) {
+            try (PrintStream log = new PrintStream(mergedFileName)) {
+                merged.outputPercentileDistribution(log, scalingRatio);
+            }
+            out.printf("merged histogram written to %s%n", mergedFileName);
+        }
+    }
+}
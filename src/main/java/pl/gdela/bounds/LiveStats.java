@@ -0,0 +1,148 @@
+package pl.gdela.bounds;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static java.lang.System.nanoTime;
+
+/**
+ * Backs {@link LiveStatsMBean} with a {@link Recorder}, to which measuring threads record wait-free.
+ * Reading an attribute takes the calls recorded since the previous read from the recorder, and adds
+ * them to the histogram of the execution, so the measuring threads are never blocked by a JMX client.
+ */
+class LiveStats implements LiveStatsMBean {
+
+    static final String OBJECT_NAME = "pl.gdela.bounds:type=Measure,name=LiveStats";
+    private static final long RECENT_TIME = 1_000_000_000; // nanoseconds of recent throughput
+
+    private final Recorder recorder = new Recorder(1, 3600_000_000_000L, 3);
+    private final Histogram histogram = new Histogram(1, 3600_000_000_000L, 3);
+    private Histogram intervalHistogram; // reused, so that reading does not allocate a new one each time
+    private volatile String execution = "none";
+    private long resetTime = nanoTime();
+    private long refreshTime = nanoTime();
+    private long recentStartTime = nanoTime();
+    private long recentCount;
+    private double recentThroughput;
+
+    /**
+     * Creates the statistics and registers them in the platform MBean server.
+     */
+    static LiveStats register() throws JMException {
+        var liveStats = new LiveStats();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(liveStats, new ObjectName(OBJECT_NAME));
+        return liveStats;
+    }
+
+    /**
+     * Starts statistics of the next execution, forgetting the previous one.
+     */
+    void start(String execution) {
+        this.execution = execution;
+        reset();
+    }
+
+    /**
+     * Records time of a call, which may be the average of given number of calls timed together.
+     * Safe to be called by many threads at once, and wait-free.
+     */
+    void recordValue(long sampleTime, long count) {
+        recorder.recordValueWithCount(sampleTime, count);
+    }
+
+    private synchronized void refresh() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        histogram.add(intervalHistogram);
+        refreshTime = nanoTime();
+        recentCount += intervalHistogram.getTotalCount();
+        if (refreshTime - recentStartTime >= RECENT_TIME) { // otherwise reads close to each other give noise
+            recentThroughput = recentCount * 1e9 / (refreshTime - recentStartTime);
+            recentStartTime = refreshTime;
+            recentCount = 0;
+        }
+    }
+
+    @Override
+    public String getExecution() {
+        return execution;
+    }
+
+    @Override
+    public synchronized long getCount() {
+        refresh();
+        return histogram.getTotalCount();
+    }
+
+    @Override
+    public synchronized double getMean() {
+        refresh();
+        return histogram.getMean() / 1_000_000.0;
+    }
+
+    @Override
+    public double getP50() {
+        return percentile(50);
+    }
+
+    @Override
+    public double getP99() {
+        return percentile(99);
+    }
+
+    @Override
+    public double getP999() {
+        return percentile(99.9);
+    }
+
+    @Override
+    public synchronized double getMax() {
+        refresh();
+        return histogram.getMaxValue() / 1_000_000.0;
+    }
+
+    private synchronized double percentile(double percentile) {
+        refresh();
+        return histogram.getValueAtPercentile(percentile) / 1_000_000.0;
+    }
+
+    @Override
+    public synchronized double getThroughput() {
+        refresh();
+        return histogram.getTotalCount() * 1e9 / Math.max(1, refreshTime - resetTime);
+    }
+
+    @Override
+    public synchronized double getRecentThroughput() {
+        refresh();
+        return recentThroughput;
+    }
+
+    @Override
+    public synchronized void reset() {
+        refresh(); // so that calls recorded up to now are forgotten too
+        histogram.reset();
+        resetTime = refreshTime;
+        recentStartTime = refreshTime;
+        recentCount = 0;
+        recentThroughput = 0;
+    }
+
+    @Override
+    public synchronized String snapshot() {
+        refresh();
+        return String.format("%s: count %d, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms, %.1f calls/s",
+                execution,
+                histogram.getTotalCount(),
+                histogram.getMean() / 1_000_000.0,
+                histogram.getValueAtPercentile(50) / 1_000_000.0,
+                histogram.getValueAtPercentile(99) / 1_000_000.0,
+                histogram.getValueAtPercentile(99.9) / 1_000_000.0,
+                histogram.getMaxValue() / 1_000_000.0,
+                histogram.getTotalCount() * 1e9 / Math.max(1, refreshTime - resetTime)
+        );
+    }
+}
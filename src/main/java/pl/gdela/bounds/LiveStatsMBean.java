@@ -0,0 +1,43 @@
+package pl.gdela.bounds;
+
+/**
+ * Statistics of the current execution of {@link Measure}, updated while it runs, to be watched with
+ * JConsole or a JMX client. Times are in milliseconds, counted since the start of the execution or the
+ * last {@link #reset()}.
+ */
+public interface LiveStatsMBean {
+
+    String getExecution();
+
+    long getCount();
+
+    double getMean();
+
+    double getP50();
+
+    double getP99();
+
+    double getP999();
+
+    double getMax();
+
+    /**
+     * Calls per second since the start of the execution or the last reset.
+     */
+    double getThroughput();
+
+    /**
+     * Calls per second between the last two reads that were at least a second apart.
+     */
+    double getRecentThroughput();
+
+    /**
+     * Forgets calls recorded up to now, so that the effect of a change in the environment is seen alone.
+     */
+    void reset();
+
+    /**
+     * Returns all the statistics at once, as they are at one moment.
+     */
+    String snapshot();
+}
@@ -2,20 +2,33 @@ package pl.gdela.bounds;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.HdrHistogram.Histogram;
 
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.System.nanoTime;
 import static java.lang.System.out;
 import static java.lang.Thread.sleep;
 import static java.lang.invoke.MethodType.methodType;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
 public class Measure {
 
@@ -28,21 +41,69 @@ public class Measure {
     @Parameter(names = "-w", description = "Number of warmups to do before actual measurement")
     private int warmups = 0;
 
+    @Parameter(names = "-a", description = "Whether to warm up until the calls are stable, instead of fixed number of warmups")
+    private boolean withAdaptiveWarmup = false;
+
+    @Parameter(names = "-m", description = "Maximum time of adaptive warmup in seconds, after which measurement starts anyway")
+    private double maxWarmupTime = 60;
+
+    @Parameter(names = "-v", description = "Coefficient of variation of recent batches, below which adaptive warmup is stable")
+    private double stableVariation = 0.02;
+
     @Parameter(names = "-h", description = "Whether to capture call times and print histogram")
     private boolean withHistogram = false;
 
     @Parameter(names = "-s", description = "Whether to capture call times and print simple stats")
     private boolean withStats = false;
 
+    @Parameter(names = "-t", description = "Number of threads calling the method at the same time, each doing all iterations")
+    private int threads = 1;
+
+    @Parameter(names = "-l", description = "Whether to write histogram of each thread to its own file, next to the merged one")
+    private boolean withThreadHistograms = false;
+
+    @Parameter(names = "-k", description = "Whether to capture bytes allocated by each timed batch, not only by the whole run")
+    private boolean withBatchAllocation = false;
+
+    @Parameter(names = "-d", description = "Whether to write every timed batch to memory mapped samples-<name>.raw file, for RawSampleReport")
+    private boolean withRawSamples = false;
+
+    @Parameter(names = "-x", description = "Whether to expose statistics of the running execution as JMX MBean, to be watched live")
+    private boolean withLiveStats = false;
+
+    @Parameter(names = "-e", description = "Interval in seconds of histograms written to .hlog file during the run, zero for none")
+    private double histogramInterval = 0;
+
+    @Parameter(names = "-r", description = "Target rate of calls per second of each thread, instead of calling back to back, prints times from intended start")
+    private double rate = 0;
+
+    @Parameter(names = "-b", description = "Number of calls timed together, each recorded as the average of the batch")
+    private int batchSize = 1;
+
+    @Parameter(names = "-n", description = "Time only one in this many batches, the others are called without timing")
+    private int sampleEvery = 1;
+
+    @Parameter(names = "-c", description = "Whether to subtract the calibrated cost of timing from each timed batch")
+    private boolean withOverheadSubtracted = false;
+
+    @Parameter(names = "-j", description = "Whether to explain outliers with JVM events streamed by JFR, keeps 24 bytes per timed batch")
+    private boolean withOutlierAttribution = false;
+
+    @Parameter(names = "-o", description = "How many times slower than the fastest call is an outlier explained by -j")
+    private double outlierFactor = 1.05;
+
     private static final RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
+    private static final CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+    private static final ClassLoadingMXBean classLoadingBean = ManagementFactory.getClassLoadingMXBean();
     private static final Runtime runtime = Runtime.getRuntime();
 
-    private long maxSampleTime;
+    private static final int STABLE_BATCHES = 10; // how many recent batches have to be stable
+    private static final long BATCH_TIME = 10_000_000; // nanoseconds that one batch of warmup calls should take
+    private static final long QUIET_COMPILATION_TIME = 200_000_000; // nanoseconds without compilation to call it finished
 
-    private Histogram histogram;
-    private int[] statsLowRange;
-    private int[] statsHighRange;
-    private int statsOutsideRange;
+    private long timingOverhead; // to be subtracted from each timed batch, see calibrate()
+    private IntervalHistogramLog intervalLog; // of the current execution, if histograms are written in intervals
+    private LiveStats liveStats;
 
     public static void main(String[] args) throws Throwable {
         out.printf("have %d processors%n", runtime.availableProcessors());
@@ -58,55 +119,536 @@ public class Measure {
         Class<?> clazz = Class.forName("pl.gdela.bounds." + targetClass);
         var lookup = MethodHandles.lookup();
         var method = lookup.findStatic(clazz, targetMethod, methodType(long.class));
+        checkArgument(batchSize > 0 && sampleEvery > 0, "batch size and sampling must be positive");
+        checkArgument(rate == 0 || (batchSize == 1 && sampleEvery == 1), "target rate can't be used with batches or sampling");
 
-        if (withHistogram) histogram = new Histogram(1000, 1_000_000_000L, 3);
-        if (withStats) { statsLowRange = new int[100]; statsHighRange = new int[100]; }
+        // before anything else is done, so that it's the time to the first result, as a short-lived job would see it
+        long firstResult = (long) method.invokeExact();
+        out.printf("first call finished at %d ms, %d classes loaded (dummy %d)%n",
+                runtimeBean.getUptime(), classLoadingBean.getLoadedClassCount(), firstResult % 10);
+
+        if (withLiveStats) {
+            liveStats = LiveStats.register();
+            out.printf("live stats exposed as %s in process %d%n", LiveStats.OBJECT_NAME, ProcessHandle.current().pid());
+        }
+
+        if (withOverheadSubtracted) {
+            // only then, as it takes a good part of a second, which would be counted in the time to steady state
+            printTimerResolution();
+            timingOverhead = calibrate(lookup.findStatic(Measure.class, "empty", methodType(long.class)));
+        }
 
         out.printf("executions started at %d ms%n", runtimeBean.getUptime());
-        if (warmups > 0) {
+        if (withAdaptiveWarmup) {
+            warmUpUntilStable(method);
+        } else if (warmups > 0) {
             for (int i = 1; i <= warmups; i++) {
                 execute(method, iterations, i + "-warmup");
                 out.printf("warmup %d finished at %d ms%n", i, runtimeBean.getUptime());
             }
-            sleep(5000);
-            out.printf("sleep after warmups finished at %d ms%n", runtimeBean.getUptime());
+            waitForCompilation(5000);
+            out.printf("wait after warmups finished at %d ms%n", runtimeBean.getUptime());
         }
         execute(method, iterations, "main");
-        out.printf("measurement finished at %d ms%n", runtimeBean.getUptime());
+        out.printf("measurement finished at %d ms, %d classes loaded%n", runtimeBean.getUptime(), classLoadingBean.getLoadedClassCount());
         runtime.halt(0);
     }
 
-    private void execute(MethodHandle method, long iterations, String name) throws Throwable {
-        maxSampleTime = 0;
-        if (withHistogram) histogram.reset();
-        if (withStats) { Arrays.fill(statsLowRange, 0); Arrays.fill(statsHighRange, 0); statsOutsideRange = 0; }
+    /**
+     * Runs the workers, the same way as the measurement does, in rounds taking about {@link #BATCH_TIME}, until
+     * the mean call time of their timed batches in recent rounds varies less than {@link #stableVariation} and
+     * the JIT has not compiled anything while they were running, or until {@link #maxWarmupTime} passes.
+     * So the timing and recording code of workers is warmed up too, not only the method. Then waits for the
+     * compilations that are still queued, and logs why the warmup was found stable, or that it was not.
+     */
+    private void warmUpUntilStable(MethodHandle method) throws Throwable {
+        boolean compilationMonitored = compilationBean != null && compilationBean.isCompilationTimeMonitoringSupported();
+        if (!compilationMonitored) {
+            out.printf("compilation time is not monitored in this JVM, warmup will check only the variation%n");
+        }
+        if (liveStats != null) liveStats.start("adaptive-warmup");
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(method, 0, false)); // reused by all rounds, so that rounds allocate nothing
+        }
+        long warmupStartTime = nanoTime();
+        long deadline = warmupStartTime + (long) (maxWarmupTime * 1_000_000_000L);
+        Deque<Double> roundMeans = new ArrayDeque<>();
+        Deque<Long> compilationTimes = new ArrayDeque<>();
+        long roundCalls = batchSize; // by each thread
+        long rounds = 0;
+        double variation = Double.NaN;
+        while (true) {
+            long compilationTime = compilationMonitored ? compilationBean.getTotalCompilationTime() : 0;
+            long sampledTime = 0;
+            long sampledCalls = 0;
+            for (Worker worker : workers) {
+                worker.iterations = roundCalls;
+                sampledTime -= worker.samples.totalSampleTime;
+                sampledCalls -= worker.samples.totalCount;
+            }
+            runWorkers(workers, "adaptive-warmup");
+            long roundTime = 0;
+            for (Worker worker : workers) {
+                sampledTime += worker.samples.totalSampleTime;
+                sampledCalls += worker.samples.totalCount;
+                roundTime = Math.max(roundTime, worker.finishTime - worker.startTime);
+            }
+            rounds++;
+            if ((roundTime < BATCH_TIME / 2 || sampledCalls == 0) && roundCalls < Long.MAX_VALUE / 2) {
+                // too short rounds are dominated by noise, start over with longer ones
+                roundCalls *= 2;
+                roundMeans.clear();
+                compilationTimes.clear();
+                continue;
+            }
+            roundMeans.addLast((double) sampledTime / sampledCalls);
+            compilationTimes.addLast(compilationTime);
+            if (roundMeans.size() > STABLE_BATCHES) {
+                roundMeans.removeFirst();
+                compilationTimes.removeFirst();
+            }
+            if (roundMeans.size() == STABLE_BATCHES) {
+                variation = coefficientOfVariation(roundMeans);
+                long compiledMillis = compilationMonitored
+                        ? compilationBean.getTotalCompilationTime() - compilationTimes.getFirst()
+                        : 0;
+                if (variation < stableVariation && compiledMillis == 0) {
+                    out.printf("warmup stable at %d ms after %d rounds of %d calls: mean %.3f ms per call varies by %.2f%% (below %.2f%%)%s (dummy %d)%n",
+                            runtimeBean.getUptime(),
+                            rounds,
+                            roundCalls,
+                            roundMeans.getLast() / 1000.0 / 1000.0,
+                            variation * 100,
+                            stableVariation * 100,
+                            compilationMonitored ? ", nothing compiled during last " + STABLE_BATCHES + " rounds" : "",
+                            workers.stream().mapToLong(worker -> worker.result).sum() % 10
+                    );
+                    break;
+                }
+            }
+            if (nanoTime() > deadline) {
+                out.printf("warmup not stable at %d ms after %d rounds of %d calls, but %.1f s cap reached: variation %.2f%% (target %.2f%%) (dummy %d)%n",
+                        runtimeBean.getUptime(),
+                        rounds,
+                        roundCalls,
+                        maxWarmupTime,
+                        variation * 100,
+                        stableVariation * 100,
+                        workers.stream().mapToLong(worker -> worker.result).sum() % 10
+                );
+                break;
+            }
+        }
+        if (compilationMonitored) {
+            waitForCompilation(Math.max(0, (deadline - nanoTime()) / 1_000_000));
+        }
+    }
 
+    private static double coefficientOfVariation(Iterable<Double> values) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        int count = 0;
+        for (double value : values) {
+            sum += value;
+            sumOfSquares += value * value;
+            count++;
+        }
+        double mean = sum / count;
+        double variance = Math.max(0, sumOfSquares / count - mean * mean);
+        return Math.sqrt(variance) / mean;
+    }
+
+    /**
+     * Waits until the JIT compiles nothing for {@link #QUIET_COMPILATION_TIME}, which means that background
+     * compilations queued by the warmup are finished, but no longer than given number of milliseconds.
+     */
+    private static void waitForCompilation(long maxMillis) throws InterruptedException {
+        if (compilationBean == null || !compilationBean.isCompilationTimeMonitoringSupported()) {
+            sleep(maxMillis);
+            return;
+        }
+        long deadline = nanoTime() + maxMillis * 1_000_000;
+        long compilationTime = compilationBean.getTotalCompilationTime();
+        long quietSince = nanoTime();
+        while (nanoTime() - quietSince < QUIET_COMPILATION_TIME && nanoTime() < deadline) {
+            sleep(10);
+            long newCompilationTime = compilationBean.getTotalCompilationTime();
+            if (newCompilationTime != compilationTime) {
+                compilationTime = newCompilationTime;
+                quietSince = nanoTime();
+            }
+        }
+        out.printf("compilation %s at %d ms, %d ms compiled in total%n",
+                nanoTime() - quietSince >= QUIET_COMPILATION_TIME ? "quiet" : "still active",
+                runtimeBean.getUptime(),
+                compilationTime
+        );
+    }
+
+    /**
+     * Prints the smallest difference between two nanoTime() readings, and how long reading it takes.
+     */
+    private static void printTimerResolution() {
+        long resolution = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long first = nanoTime();
+            long next;
+            do {
+                next = nanoTime();
+            } while (next == first);
+            resolution = Math.min(resolution, next - first);
+        }
+        int reads = 1_000_000;
+        long dummy = 0;
         long startTime = nanoTime();
-        long result = 0;
-        for (long i = 0; i < iterations; i++) {
-            long sampleStartTime = nanoTime();
-            result += (long) method.invokeExact();
-            long sampleFinishTime =  nanoTime();
-            long sampleTime = sampleFinishTime - sampleStartTime;
-            maxSampleTime = Math.max(maxSampleTime, sampleTime);
-            if (withHistogram) histogram.recordValue(sampleTime);
-            if (withStats) statsRecordValue(sampleTime);
+        for (int i = 0; i < reads; i++) {
+            dummy += nanoTime();
         }
         long finishTime = nanoTime();
-        out.printf("dummy result is %s%n", result);
+        out.printf("timer resolution is %d ns, reading it takes %.1f ns (dummy %d)%n",
+                resolution, (double) (finishTime - startTime) / reads, dummy % 10);
+    }
 
-        out.printf("%d executions took %.1f ms (%.3f ms per execution, %.3f ms maximum)%n",
-                iterations,
-                (finishTime-startTime) / 1000.0 / 1000.0,
-                (finishTime-startTime) / 1000.0 / 1000.0 / iterations,
-                maxSampleTime / 1000.0 / 1000.0
+    /**
+     * Measures, in the same way as the actual method, a method that does nothing, so that it's known how
+     * much of each timed batch is the cost of timing itself. Returns the median of that cost in nanoseconds.
+     */
+    private long calibrate(MethodHandle emptyMethod) throws Throwable {
+        var histogram = new Histogram(1, 1_000_000_000L, 3);
+        long result = 0;
+        for (int round = 0; round < 5; round++) { // the first rounds are warmup, so that the loop is compiled
+            histogram.reset();
+            for (int i = 0; i < 100_000; i++) {
+                long sampleStartTime = nanoTime();
+                for (long j = 0; j < batchSize; j++) {
+                    result += (long) emptyMethod.invokeExact();
+                }
+                long sampleFinishTime = nanoTime();
+                histogram.recordValue(sampleFinishTime - sampleStartTime);
+            }
+        }
+        long overhead = histogram.getValueAtPercentile(50);
+        out.printf("timing a batch of %d empty calls takes min %d ns, med %d ns, max %d ns, median will be subtracted (dummy %d)%n",
+                batchSize,
+                histogram.getMinValue(),
+                overhead,
+                histogram.getMaxValue(),
+                result
         );
+        return overhead;
+    }
 
-        if (withHistogram) printHistogram(name);
-        if (withStats) printStats();
+    private static long empty() {
+        return 0;
     }
 
-    private void printHistogram(String name) throws FileNotFoundException {
+    private void execute(MethodHandle method, long iterations, String name) throws Throwable {
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(method, iterations, true));
+        }
+        var attribution = withOutlierAttribution ? OutlierAttribution.start() : null;
+        intervalLog = histogramInterval > 0 ? new IntervalHistogramLog(name, histogramInterval) : null;
+        if (liveStats != null) liveStats.start(name);
+        RawSampleFile rawSamples = null;
+        if (withRawSamples) {
+            rawSamples = RawSampleFile.create(Path.of("samples-" + name + ".raw"), threads, timedBatches(iterations));
+            for (int i = 0; i < threads; i++) {
+                workers.get(i).rawSamples = rawSamples.region(i);
+            }
+        }
+        runWorkers(workers, name);
+        if (intervalLog != null) intervalLog.close(); // right away, so that the last interval is not longer
+        if (rawSamples != null) rawSamples.close();
+
+        Samples merged = new Samples(true, timedBatches(iterations) * threads);
+        long result = 0;
+        for (Worker worker : workers) {
+            merged.add(worker.samples);
+            result += worker.result;
+        }
+        out.printf("dummy result is %s%n", result);
+
+        for (int i = 0; i < workers.size() && threads > 1; i++) {
+            Worker worker = workers.get(i);
+            out.printf("thread %d: %d executions took %.1f ms (%.3f ms per execution, %.3f ms maximum)%n",
+                    i,
+                    iterations,
+                    (worker.finishTime - worker.startTime) / 1000.0 / 1000.0,
+                    (worker.finishTime - worker.startTime) / 1000.0 / 1000.0 / iterations,
+                    worker.samples.maxSampleTime / 1000.0 / 1000.0
+            );
+            out.printf("thread %d: %s%n", i, worker.accounting.describe(iterations, worker.finishTime - worker.startTime));
+            if (withHistogram && withThreadHistograms) printHistogram(worker.samples, name + "-thread-" + i);
+        }
+
+        long startTime = workers.stream().mapToLong(worker -> worker.startTime).min().orElseThrow();
+        long finishTime = workers.stream().mapToLong(worker -> worker.finishTime).max().orElseThrow();
+        long threadsTime = workers.stream().mapToLong(worker -> worker.finishTime - worker.startTime).sum();
+        var accounting = workers.stream().map(worker -> worker.accounting).reduce(ThreadAccounting::plus).orElseThrow();
+        if (threads == 1) {
+            out.printf("%d executions took %.1f ms (%.3f ms per execution, %.3f ms maximum)%n",
+                    iterations,
+                    (finishTime-startTime) / 1000.0 / 1000.0,
+                    (finishTime-startTime) / 1000.0 / 1000.0 / iterations,
+                    merged.maxSampleTime / 1000.0 / 1000.0
+            );
+            out.printf("%s%n", accounting.describe(iterations, threadsTime));
+        } else {
+            out.printf("all threads: %d executions took %.1f ms (%.3f ms maximum)%n",
+                    iterations * threads,
+                    (finishTime-startTime) / 1000.0 / 1000.0,
+                    merged.maxSampleTime / 1000.0 / 1000.0
+            );
+            out.printf("all threads: %s%n", accounting.describe(iterations * threads, threadsTime));
+        }
+        if (withBatchAllocation) {
+            out.printf("allocated per call in timed batches: med %d, p99 %d, max %d bytes, %d of %d batches allocated%n",
+                    merged.allocationHistogram.getValueAtPercentile(50),
+                    merged.allocationHistogram.getValueAtPercentile(99),
+                    merged.allocationHistogram.getMaxValue(),
+                    merged.allocationHistogram.getTotalCount() - merged.allocationHistogram.getCountAtValue(0),
+                    merged.allocationHistogram.getTotalCount()
+            );
+        }
+
+        if (rate > 0) {
+            out.printf("target rate %.1f calls/s per thread, calls were started at most %.3f ms after intended%n",
+                    rate,
+                    workers.stream().mapToLong(worker -> worker.behindTime).max().orElseThrow() / 1000.0 / 1000.0
+            );
+        }
+
+        if (withHistogram || rate > 0) printHistogram(merged, name);
+        if (withStats) printStats(merged);
+        if (attribution != null) attribution.stopAndPrint(merged.intervals, outlierFactor);
+        if (rawSamples != null) {
+            out.printf("raw samples written to samples-%s.raw%n", name);
+        }
+        if (intervalLog != null) {
+            out.printf("histograms of %.1f s intervals written to %s%n", histogramInterval, intervalLog.fileName());
+        }
+    }
+
+    /**
+     * Returns how many batches of given number of calls are timed by each thread.
+     */
+    private long timedBatches(long iterations) {
+        return ((iterations + batchSize - 1) / batchSize + sampleEvery - 1) / sampleEvery;
+    }
+
+    private void runWorkers(List<Worker> workers, String name) throws Throwable {
+        if (workers.size() == 1) {
+            workers.get(0).call(); // on the main thread, as it always was
+        } else {
+            executeInParallel(workers, name);
+        }
+    }
+
+    /**
+     * Runs each worker on its own thread, and waits for all of them to finish.
+     */
+    private void executeInParallel(List<Worker> workers, String name) throws Throwable {
+        var threadFactory = new ThreadFactoryBuilder().setNameFormat("measure-" + name + "-%d").build();
+        var executor = newFixedThreadPool(workers.size(), threadFactory);
+        var barrier = new CyclicBarrier(workers.size()); // so that threads start at once, not as they are created
+        List<Future<?>> futures = new ArrayList<>();
+        for (Worker worker : workers) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                return worker.call();
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Calls the method given number of times, capturing call times in its own samples.
+     */
+    private class Worker {
+        private final MethodHandle method;
+        private long iterations;
+        private final Samples samples;
+        private long result;
+        private long startTime;
+        private long finishTime;
+        private long behindTime;
+        private ThreadAccounting accounting;
+        private RawSampleFile.Region rawSamples;
+
+        /**
+         * Creates worker, whose samples are only counted, not recorded, if it's not measuring, but warming up.
+         */
+        Worker(MethodHandle method, long iterations, boolean measuring) {
+            this.method = method;
+            this.iterations = iterations;
+            this.samples = new Samples(measuring, timedBatches(iterations));
+        }
+
+        Worker call() throws Exception {
+            try {
+                var accountingAtStart = ThreadAccounting.current();
+                startTime = nanoTime();
+                double interval = rate > 0 ? 1_000_000_000.0 / rate : 0;
+                for (long i = 0; i < iterations; i += batchSize) {
+                    long calls = Math.min(batchSize, iterations - i);
+                    if ((i / batchSize) % sampleEvery != 0) {
+                        for (long j = 0; j < calls; j++) {
+                            result += (long) method.invokeExact();
+                        }
+                        continue;
+                    }
+                    long intendedStartTime = startTime + (long) (i * interval);
+                    if (rate > 0) waitUntil(intendedStartTime);
+                    long allocatedAtStart = withBatchAllocation ? ThreadAccounting.currentAllocatedBytes() : 0;
+                    long sampleStartTime = nanoTime();
+                    for (long j = 0; j < calls; j++) {
+                        result += (long) method.invokeExact();
+                    }
+                    long sampleFinishTime =  nanoTime();
+                    if (withBatchAllocation) samples.recordAllocation((ThreadAccounting.currentAllocatedBytes() - allocatedAtStart) / calls);
+                    long sampleTime = Math.max(0, sampleFinishTime - sampleStartTime - timingOverhead);
+                    samples.recordValue(sampleTime / calls, calls);
+                    if (intervalLog != null) intervalLog.recordValue(sampleTime / calls, calls);
+                    if (rawSamples != null) rawSamples.record(sampleStartTime, sampleTime / calls, calls);
+                    if (liveStats != null) liveStats.recordValue(sampleTime / calls, calls);
+                    if (samples.intervals != null) samples.intervals.record(sampleStartTime, sampleFinishTime, calls);
+                    if (rate > 0) {
+                        // as if requests were queued while the previous ones were slow, not just not sent
+                        samples.recordCorrectedValue(sampleFinishTime - intendedStartTime);
+                        behindTime = Math.max(behindTime, sampleStartTime - intendedStartTime);
+                    }
+                }
+                finishTime = nanoTime();
+                accounting = ThreadAccounting.current().minus(accountingAtStart);
+                return this;
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // a custom direct subclass of Throwable, which invokeExact() lets through, but call() can't declare
+                throw new IllegalStateException("measured method threw " + e, e);
+            }
+        }
+
+        private static void waitUntil(long time) {
+            long remaining = time - nanoTime();
+            if (remaining > 200_000) {
+                LockSupport.parkNanos(remaining - 100_000); // parking is not precise, so wake up a bit earlier
+            }
+            while (nanoTime() < time) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Call times captured by one thread, or merged from many.
+     */
+    private class Samples {
+        private long maxSampleTime;
+        private long totalSampleTime; // of all calls, so with each sample multiplied by its count
+        private long totalCount;
+        private final Histogram histogram;
+        // measured from intended start of a call, so may be much longer, when calls can't keep up with the rate
+        private final Histogram correctedHistogram;
+        private final long[] statsLowRange;
+        private final long[] statsHighRange;
+        private long statsOutsideRange;
+        private final Histogram allocationHistogram;
+        private final OutlierAttribution.Intervals intervals;
+
+        /**
+         * Creates samples of given number of timed batches, or samples which only count calls and their
+         * total time, if not recording, as in warmup.
+         */
+        Samples(boolean recording, long timedBatches) {
+            histogram = recording && withHistogram ? new Histogram(1, 1_000_000_000L, 3) : null;
+            correctedHistogram = recording && rate > 0 ? new Histogram(1, 3600_000_000_000L, 3) : null;
+            statsLowRange = recording && withStats ? new long[100] : null;
+            statsHighRange = recording && withStats ? new long[100] : null;
+            allocationHistogram = recording && withBatchAllocation ? new Histogram(3) : null;
+            intervals = recording && withOutlierAttribution ? new OutlierAttribution.Intervals(timedBatches) : null;
+        }
+
+        /**
+         * Records time of a call, which may be the average of given number of calls timed together.
+         */
+        void recordValue(long sampleTime, long count) {
+            maxSampleTime = Math.max(maxSampleTime, sampleTime);
+            totalSampleTime += sampleTime * count;
+            totalCount += count;
+            if (histogram != null) histogram.recordValueWithCount(sampleTime, count);
+            if (statsLowRange != null) statsRecordValue(sampleTime, count);
+        }
+
+        void recordCorrectedValue(long responseTime) {
+            if (correctedHistogram != null) correctedHistogram.recordValue(responseTime);
+        }
+
+        void recordAllocation(long bytesPerCall) {
+            if (allocationHistogram != null) allocationHistogram.recordValue(bytesPerCall);
+        }
+
+        void add(Samples other) {
+            maxSampleTime = Math.max(maxSampleTime, other.maxSampleTime);
+            totalSampleTime += other.totalSampleTime;
+            totalCount += other.totalCount;
+            if (withHistogram) histogram.add(other.histogram);
+            if (correctedHistogram != null) correctedHistogram.add(other.correctedHistogram);
+            if (withStats) {
+                for (int i = 0; i < statsLowRange.length; i++) statsLowRange[i] += other.statsLowRange[i];
+                for (int i = 0; i < statsHighRange.length; i++) statsHighRange[i] += other.statsHighRange[i];
+                statsOutsideRange += other.statsOutsideRange;
+            }
+            if (withOutlierAttribution) intervals.add(other.intervals);
+            if (withBatchAllocation) allocationHistogram.add(other.allocationHistogram);
+        }
+
+        private void statsRecordValue(long sampleTime, long count) {
+            int diff = (int) (sampleTime / 1000 / 10);
+            if (diff < statsLowRange.length) {
+                statsLowRange[diff] += count;
+            }
+            else if (diff/10 < statsHighRange.length) {
+                statsHighRange[diff/10] += count;
+            }
+            else {
+                statsOutsideRange += count;
+            }
+        }
+    }
+
+    private void printHistogram(Samples samples, String name) throws FileNotFoundException {
+        if (samples.histogram != null) printHistogram(samples.histogram, name);
+        if (samples.correctedHistogram != null) {
+            out.printf("corrected for coordinated omission, that is measured from intended start of each call:%n");
+            printHistogram(samples.correctedHistogram, name + "-corrected");
+            if (samples.histogram != null) printPercentiles(samples.histogram, samples.correctedHistogram);
+        }
+    }
+
+    private void printPercentiles(Histogram uncorrected, Histogram corrected) {
+        double scalingRatio = 1_000_000.0;
+        out.printf("%-12s %12s %12s%n", "percentile", "uncorrected", "corrected");
+        for (double percentile : new double[] { 50, 90, 99, 99.9, 99.99, 100 }) {
+            out.printf("%-12s %9.3f ms %9.3f ms%n",
+                    percentile,
+                    uncorrected.getValueAtPercentile(percentile) / scalingRatio,
+                    corrected.getValueAtPercentile(percentile) / scalingRatio
+            );
+        }
+    }
+
+    private void printHistogram(Histogram histogram, String name) throws FileNotFoundException {
         String fileName = "histogram-" + name + ".log";
         double scalingRatio = 1_000_000.0;
         try (PrintStream log = new PrintStream(fileName)) {
@@ -130,32 +672,19 @@ public class Measure {
         );
     }
 
-    private void statsRecordValue(long sampleTime) {
-        int diff = (int) (sampleTime / 1000 / 10);
-        if (diff < statsLowRange.length) {
-            statsLowRange[diff]++;
-        }
-        else if (diff/10 < statsHighRange.length) {
-            statsHighRange[diff/10]++;
-        }
-        else {
-            statsOutsideRange++;
-        }
-    }
-
-    private void printStats() {
-        for (int i = 0; i < statsLowRange.length; i++) {
-            if (statsLowRange[i] > 0) {
-                out.printf("%.2f ms: %d%n", i/100.0, statsLowRange[i]);
+    private void printStats(Samples samples) {
+        for (int i = 0; i < samples.statsLowRange.length; i++) {
+            if (samples.statsLowRange[i] > 0) {
+                out.printf("%.2f ms: %d%n", i/100.0, samples.statsLowRange[i]);
             }
         }
-        for (int i = 0; i < statsHighRange.length; i++) {
-            if (statsHighRange[i] > 0) {
-                out.printf("%.1f ms: %d%n", i/10.0, statsHighRange[i]);
+        for (int i = 0; i < samples.statsHighRange.length; i++) {
+            if (samples.statsHighRange[i] > 0) {
+                out.printf("%.1f ms: %d%n", i/10.0, samples.statsHighRange[i]);
             }
         }
-        if (statsOutsideRange > 0) {
-            out.printf(">=10 ms: %d%n", statsOutsideRange);
+        if (samples.statsOutsideRange > 0) {
+            out.printf(">=10 ms: %d%n", samples.statsOutsideRange);
         }
     }
 }
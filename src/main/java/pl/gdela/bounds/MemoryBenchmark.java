@@ -0,0 +1,109 @@
+package pl.gdela.bounds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+import static java.lang.System.out;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+import static pl.gdela.bounds.MemoryHeavy.ACCESSES;
+
+/**
+ * Measures time of one read by the kernels of {@link MemoryHeavy}, for working sets from the size that
+ * fits in L1 to the size that fits only in DRAM. After the benchmarks, main() prints the latency of a read
+ * and the bandwidth against the size of working set. The bandwidth of the sequential reads counts the bytes
+ * of longs read, and of the others the bytes of whole cache lines, as that is what memory has to transfer.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2G", "-Xmx2G"})
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class MemoryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MyState {
+        @Param({"16", "128", "1024", "8192", "65536", "524288"})
+        int workingSetInKb;
+
+        long[] data;
+        long[] chain;
+        long start; // each call continues where the previous one stopped, see MemoryHeavy
+        long chased;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            data = MemoryHeavy.data(workingSetInKb * 1024L / 8);
+            chain = MemoryHeavy.chain(data.length);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public long sequential(MyState state) throws InterruptedException {
+        long sum = MemoryHeavy.sequential(state.data, state.start);
+        state.start += ACCESSES;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public long strided(MyState state) throws InterruptedException {
+        long sum = MemoryHeavy.strided(state.data, state.start);
+        state.start += ACCESSES;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public long random(MyState state) throws InterruptedException {
+        long sum = MemoryHeavy.random(state.data, state.start);
+        state.start += ACCESSES;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public long pointer_chase(MyState state) throws InterruptedException {
+        state.chased = MemoryHeavy.pointer_chase(state.chain, state.chased);
+        return state.chased;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MemoryBenchmark.class.getSimpleName())
+                .build();
+        Collection<RunResult> results = new Runner(opt).run();
+
+        out.printf("%n%-16s %14s %14s %12s%n", "kernel", "working set KB", "ns per read", "GB/s");
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String kernel = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            double nanosPerRead = result.getPrimaryResult().getScore();
+            int bytesPerRead = kernel.equals("sequential") ? 8 : 8 * MemoryHeavy.LONGS_PER_LINE;
+            out.printf("%-16s %14s %14.3f %12.2f%n",
+                    kernel,
+                    result.getParams().getParam("workingSetInKb"),
+                    nanosPerRead,
+                    bytesPerRead / nanosPerRead
+            );
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pl.gdela.bounds;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Kernels bound by memory, not by CPU like {@link CpuHeavy}: each does {@link #ACCESSES} reads of a working
+ * set, sequentially, with a stride of a cache line, at random independent positions, or chasing pointers
+ * along a random cycle, where each read has to wait for the previous one. How long a read takes depends on
+ * which level of cache the working set fits in, so sweeping its size shows the latency and bandwidth of L1,
+ * L2, L3 and DRAM, see {@link MemoryBenchmark}.
+ * <p>
+ * Each call starts where the previous one stopped, so that working sets bigger than the reads of one call
+ * are read in whole, instead of the same beginning of them, which would then be in cache.
+ * <p>
+ * Methods without arguments can be targets of {@link Measure}, they use the working set of the size in KB
+ * given by {@code -Dmemory.heavy.size}, 4096 by default, rounded down to a power of two.
+ */
+public class MemoryHeavy {
+
+    static final int ACCESSES = 1 << 20;
+    static final int LONGS_PER_LINE = 8; // in a cache line of 64 bytes
+
+    private static final long[] DATA;
+    private static final long[] CHAIN;
+    static {
+        long sizeInKb = Long.getLong("memory.heavy.size", 4096);
+        DATA = data(Long.highestOneBit(sizeInKb * 1024 / 8));
+        CHAIN = chain(DATA.length);
+    }
+    private static long start; // where the next call starts, it's all right if threads race for it
+    private static long chased;
+
+    static long sequential() {
+        long sum = sequential(DATA, start);
+        start += ACCESSES;
+        return sum;
+    }
+
+    static long strided() {
+        long sum = strided(DATA, start);
+        start += ACCESSES;
+        return sum;
+    }
+
+    static long random() {
+        long sum = random(DATA, start);
+        start += ACCESSES;
+        return sum;
+    }
+
+    static long pointer_chase() {
+        chased = pointer_chase(CHAIN, chased);
+        return chased;
+    }
+
+    /**
+     * Returns working set of given length, which has to be a power of two, so that indexes can be masked.
+     */
+    static long[] data(long length) {
+        checkArgument(length > 0 && Long.bitCount(length) == 1 && length <= 1 << 30, "length %s is not a power of two", length);
+        long[] data = new long[(int) length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        return data;
+    }
+
+    /**
+     * Returns working set in which each element is the index of the next one, and following them visits
+     * all elements in random order before coming back, so that the next read can't be predicted.
+     */
+    static long[] chain(int length) {
+        checkArgument(length > 0 && Integer.bitCount(length) == 1, "length %s is not a power of two", length);
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        long seed = 42;
+        for (int i = length - 1; i > 0; i--) { // Sattolo's shuffle, which gives a single cycle
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            int j = (int) ((seed >>> 33) % i);
+            int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+        }
+        long[] chain = new long[length];
+        for (int i = 0; i < length; i++) {
+            chain[order[i]] = order[(i + 1) % length];
+        }
+        return chain;
+    }
+
+    /**
+     * Reads longs one after another, starting from given read, so the next call should start at start + {@link #ACCESSES}.
+     */
+    static long sequential(long[] data, long start) {
+        int mask = data.length - 1;
+        int from = (int) (start & mask);
+        long sum = 0;
+        for (int i = from; i < from + ACCESSES; i++) {
+            sum += data[i & mask];
+        }
+        return sum;
+    }
+
+    /**
+     * Reads each long in the next cache line, starting from given read, so the next call should start at start + {@link #ACCESSES}.
+     */
+    static long strided(long[] data, long start) {
+        int mask = data.length - 1;
+        // lines per pass are a power of two, so shifting instead of dividing, which would cost more than a read from L1
+        int passShift = Integer.numberOfTrailingZeros(Math.max(1, data.length / LONGS_PER_LINE));
+        long sum = 0;
+        for (long i = start; i < start + ACCESSES; i++) {
+            // moving by one long on each pass through the working set, so that all longs are read
+            sum += data[(int) (i * LONGS_PER_LINE + (i >>> passShift)) & mask];
+        }
+        return sum;
+    }
+
+    /**
+     * Reads longs at random, with random numbers seeded by given start, so that each call reads other longs.
+     */
+    static long random(long[] data, long start) {
+        int mask = data.length - 1;
+        long sum = 0;
+        long random = start * 0x9E3779B97F4A7C15L + 42; // never zero, as the start is a multiple of ACCESSES, and 42 is not
+        for (int i = 0; i < ACCESSES; i++) {
+            random ^= random << 13; // xorshift, the next index does not depend on the read value, so reads overlap
+            random ^= random >>> 7;
+            random ^= random << 17;
+            sum += data[(int) random & mask];
+        }
+        return sum;
+    }
+
+    /**
+     * Follows the chain from given index, and returns the index at which it stopped, the next call should start from it.
+     */
+    static long pointer_chase(long[] chain, long start) {
+        long next = start;
+        for (int i = 0; i < ACCESSES; i++) {
+            next = chain[(int) next];
+        }
+        return next;
+    }
+}
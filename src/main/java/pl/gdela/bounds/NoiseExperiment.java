@@ -0,0 +1,263 @@
+package pl.gdela.bounds;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.System.out;
+
+/**
+ * Runs the matrix of experiments of reducing noise, that were done by hand with variables of
+ * {@code environment.sh} and separate {@link CpuHog} runs: each {@link Measure} target, with each set of
+ * JVM flags, next to each configuration of hogs, floating or on shielded CPUs, in a child JVM of its own.
+ * Each run is in its own directory, with the output of the child JVMs and the histogram log of the
+ * measurement, and at the end the percentiles of all runs are printed in one table, to be compared.
+ * <p>
+ * Shielding is done with {@code cset shield}, the same as in {@code environment.sh}. When cset is not
+ * installed, or can't be run without a password, shielded runs are skipped, and the others are done.
+ */
+public class NoiseExperiment {
+
+    private static final Map<String, String> FLAG_SETS = new LinkedHashMap<>();
+    static {
+        // the same as in environment.sh
+        FLAG_SETS.put("default", "");
+        FLAG_SETS.put("hush", "-XX:-UsePerfData");
+        FLAG_SETS.put("gc_off", "-XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms1G -Xmx1G -XX:+AlwaysPreTouch");
+        FLAG_SETS.put("gc_g1", "-XX:+UnlockExperimentalVMOptions -XX:+UseG1GC -Xms1G -Xmx1G -XX:+AlwaysPreTouch");
+        FLAG_SETS.put("jit_stat", "-XX:+UnlockDiagnosticVMOptions -XX:+CITime");
+    }
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+
+    @Parameter(names = "-m", required = true, description = "Targets of Measure, for example CpuHeavy.sum,CpuHeavy.sum_with_2_vars")
+    private List<String> targets;
+
+    @Parameter(names = "-a", description = "Options of Measure, the same for each run")
+    private String measureOptions = "-i 10000";
+
+    @Parameter(names = "-j", description = "Sets of JVM flags, each a name of a set from environment.sh, or names joined with +, or name=flags")
+    private List<String> flagSets = List.of("default");
+
+    @Parameter(names = "-g", description = "Hogs, each 0 for none, or number of threads:profile of CpuHog, for example 4:HIGH_GC or 2:CACHE_THRASH")
+    private List<String> hogs = List.of("0");
+
+    @Parameter(names = "-s", description = "Placements, each floating or shielded")
+    private List<String> placements = List.of("floating");
+
+    @Parameter(names = "-c", description = "CPUs to shield for the time of the experiment, for example 2,3, by default the shield is expected to be set up")
+    private String shieldedCpus;
+
+    @Parameter(names = "-o", description = "Directory for the output of runs")
+    private String outputDirectory = "noise-experiment";
+
+    private record Run(String name, String target, String flags, String hog, boolean shielded) {
+    }
+
+    private record Result(Run run, Histogram histogram, String failure) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        NoiseExperiment main = new NoiseExperiment();
+        JCommander.newBuilder().addObject(main).build().parse(args);
+        main.run();
+    }
+
+    private void run() throws Exception {
+        List<Run> runs = matrix();
+        Files.createDirectories(Path.of(outputDirectory)); // for the summary, even if all runs are skipped
+        List<String> shield = placements.contains("shielded") ? shieldCommand() : List.of();
+        if (shield == null) {
+            out.printf("cpu shielding is not available, shielded runs will be skipped%n");
+        } else if (!shield.isEmpty() && shieldedCpus != null) {
+            execute(concat(shield, "-c", shieldedCpus, "-k", "on"));
+        }
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Run run : runs) {
+                if (run.shielded && shield == null) {
+                    results.add(new Result(run, null, "skipped"));
+                    continue;
+                }
+                out.printf("run %d of %d: %s%n", results.size() + 1, runs.size(), run.name);
+                results.add(execute(run, run.shielded ? concat(shield, "-e", "--") : List.of()));
+            }
+        } finally {
+            if (shield != null && !shield.isEmpty() && shieldedCpus != null) {
+                execute(concat(shield, "-r"));
+            }
+        }
+        printTable(results, System.out);
+        try (PrintStream summary = new PrintStream(Path.of(outputDirectory, "summary.txt").toFile())) {
+            printTable(results, summary);
+        }
+    }
+
+    private List<Run> matrix() {
+        for (String placement : placements) {
+            checkArgument(placement.equals("floating") || placement.equals("shielded"), "unknown placement %s", placement);
+        }
+        List<Run> runs = new ArrayList<>();
+        for (String target : targets) {
+            for (String flagSet : flagSets) {
+                for (String hog : hogs) {
+                    for (String placement : placements) {
+                        String flagSetName = flagSet.contains("=") ? flagSet.substring(0, flagSet.indexOf('=')) : flagSet;
+                        String hogName = hog.equals("0") ? "quiet" : "hogged-" + hog.replace(':', '-').toLowerCase();
+                        String name = String.join("_", target, flagSetName, hogName, placement);
+                        runs.add(new Run(name, target, flags(flagSet), hog, placement.equals("shielded")));
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    private static String flags(String flagSet) {
+        if (flagSet.contains("=")) {
+            return flagSet.substring(flagSet.indexOf('=') + 1);
+        }
+        List<String> flags = new ArrayList<>();
+        for (String name : flagSet.split("\\+")) {
+            checkArgument(FLAG_SETS.containsKey(name), "unknown set of flags %s, known are %s", name, FLAG_SETS.keySet());
+            flags.add(FLAG_SETS.get(name));
+        }
+        return String.join(" ", flags).trim();
+    }
+
+    /**
+     * Returns the command to control the shield, or null if cset can't be run.
+     */
+    private static List<String> shieldCommand() {
+        for (List<String> command : List.of(List.of("cset", "shield"), List.of("sudo", "-n", "cset", "shield"))) {
+            try {
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                if (process.waitFor(10, TimeUnit.SECONDS) && process.exitValue() == 0) {
+                    return command;
+                }
+                process.destroyForcibly();
+            } catch (IOException | InterruptedException e) {
+                // not installed, try the next way
+            }
+        }
+        return null;
+    }
+
+    private static void execute(List<String> command) throws IOException, InterruptedException {
+        out.printf("executing %s%n", String.join(" ", command));
+        int exitValue = new ProcessBuilder(command).inheritIO().start().waitFor();
+        checkArgument(exitValue == 0, "%s failed with exit value %s", command, exitValue);
+    }
+
+    /**
+     * Starts hogs, if any, then measures the target, and reads the histogram log written by the measurement.
+     */
+    private Result execute(Run run, List<String> prefix) throws IOException, InterruptedException {
+        Path directory = Path.of(outputDirectory, run.name);
+        Files.createDirectories(directory);
+        Process hog = null;
+        if (!run.hog.equals("0")) {
+            String[] threadsAndGc = run.hog.split(":");
+            List<String> hogCommand = javaCommand("");
+            hogCommand.addAll(List.of(CpuHog.class.getName(), "-t", threadsAndGc[0], "-d", "86400"));
+            if (threadsAndGc.length > 1) hogCommand.addAll(List.of("-g", threadsAndGc[1]));
+            hog = new ProcessBuilder(hogCommand)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("hog.log").toFile())
+                    .start();
+            Thread.sleep(1000); // so that the hogs are running at full speed when the measurement starts
+        }
+        try {
+            List<String> measureCommand = new ArrayList<>(prefix);
+            measureCommand.addAll(javaCommand(run.flags));
+            measureCommand.add(Measure.class.getName());
+            measureCommand.add(run.target);
+            measureCommand.addAll(Arrays.asList(measureOptions.trim().split("\\s+")));
+            measureCommand.addAll(List.of("-e", "1"));
+            Files.writeString(directory.resolve("command.txt"), String.join(" ", measureCommand) + "\n");
+            int exitValue = new ProcessBuilder(measureCommand)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("measure.log").toFile())
+                    .start()
+                    .waitFor();
+            if (exitValue != 0) {
+                return new Result(run, null, "exit value " + exitValue + ", see " + directory.resolve("measure.log"));
+            }
+        } finally {
+            if (hog != null) {
+                // terminated gently first, so that it prints the rate it achieved, see CpuHog
+                hog.destroy();
+                if (!hog.waitFor(10, TimeUnit.SECONDS)) {
+                    hog.descendants().forEach(ProcessHandle::destroyForcibly);
+                    hog.destroyForcibly().waitFor();
+                }
+            }
+        }
+        return new Result(run, readHistogram(directory.resolve("histogram-main.hlog")), null);
+    }
+
+    private static List<String> javaCommand(String flags) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (!flags.isBlank()) command.addAll(Arrays.asList(flags.trim().split("\\s+")));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path")));
+        return command;
+    }
+
+    private static Histogram readHistogram(Path log) throws FileNotFoundException {
+        var reader = new HistogramLogReader(log.toFile());
+        Histogram merged = new Histogram(1, 3600_000_000_000L, 3);
+        EncodableHistogram interval;
+        while ((interval = reader.nextIntervalHistogram()) != null) {
+            merged.add((Histogram) interval);
+        }
+        return merged;
+    }
+
+    private static void printTable(List<Result> results, PrintStream out) {
+        double scalingRatio = 1_000_000.0;
+        int nameWidth = results.stream().mapToInt(result -> result.run.name.length()).max().orElse(4);
+        out.printf("%-" + nameWidth + "s %10s", "run", "count");
+        for (double percentile : PERCENTILES) {
+            out.printf(" %12s", percentile == 100 ? "max ms" : "p" + percentile + " ms");
+        }
+        out.printf("%n");
+        for (Result result : results) {
+            out.printf("%-" + nameWidth + "s", result.run.name);
+            if (result.histogram == null) {
+                out.printf(" %s%n", result.failure);
+                continue;
+            }
+            out.printf(" %10d", result.histogram.getTotalCount());
+            for (double percentile : PERCENTILES) {
+                out.printf(" %12.3f", result.histogram.getValueAtPercentile(percentile) / scalingRatio);
+            }
+            out.printf("%n");
+        }
+    }
+
+    private static List<String> concat(List<String> command, String... arguments) {
+        List<String> concatenated = new ArrayList<>(command);
+        concatenated.addAll(Arrays.asList(arguments));
+        return concatenated;
+    }
+}
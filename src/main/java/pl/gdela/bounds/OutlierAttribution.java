@@ -0,0 +1,274 @@
+package pl.gdela.bounds;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.System.nanoTime;
+import static java.lang.System.out;
+
+/**
+ * Explains outliers, that is calls slower than the fastest one by some factor, with JVM events that
+ * happened at the same time, so that it's clear whether GC, JIT or the OS should be tuned. The events
+ * are streamed by JFR during the measurement, and after it each outlier is matched by time with the
+ * events that overlap it. The time by which the outlier exceeds the fastest call is given to the
+ * overlapping causes in the order of {@link Cause}, and what is left is unexplained by the JVM.
+ * <p>
+ * JFR gives event times as wall clock, which is mapped to {@link System#nanoTime()} by the difference
+ * from the start of the stream, so events shorter than a few microseconds may be matched imprecisely.
+ */
+class OutlierAttribution {
+
+    /**
+     * Causes of outliers, in the order in which they are given the outlier time, when many overlap.
+     * A GC pause is done in a safepoint, so it goes first, to not be counted as just a safepoint.
+     */
+    enum Cause {
+        GC_PAUSE("jdk.GCPhasePause"),
+        DEOPTIMIZATION("jdk.Deoptimization"),
+        SAFEPOINT("jdk.SafepointBegin", "jdk.ExecuteVMOperation"),
+        JIT_COMPILATION("jdk.Compilation"),
+        THREAD_PARK("jdk.ThreadPark");
+
+        private final String[] eventNames;
+
+        Cause(String... eventNames) {
+            this.eventNames = eventNames;
+        }
+
+        static Cause of(String eventName) {
+            for (Cause cause : values()) {
+                if (Arrays.asList(cause.eventNames).contains(eventName)) {
+                    return cause;
+                }
+            }
+            throw new IllegalArgumentException("no cause for event " + eventName);
+        }
+    }
+
+    private record Event(Cause cause, long startTime, long finishTime) {
+    }
+
+    private final RecordingStream stream = new RecordingStream();
+    private final List<Event> events = new ArrayList<>();
+    private final long streamStartTime;
+    private final Instant streamStartInstant;
+
+    private OutlierAttribution() {
+        for (Cause cause : Cause.values()) {
+            for (String eventName : cause.eventNames) {
+                // default thresholds skip the short events, which are the ones that make a call slower by a bit
+                stream.enable(eventName).withThreshold(cause == Cause.THREAD_PARK ? Duration.ofNanos(10_000) : Duration.ZERO);
+                stream.onEvent(eventName, this::onEvent);
+            }
+        }
+        streamStartTime = nanoTime();
+        streamStartInstant = Instant.now();
+    }
+
+    /**
+     * Starts streaming of events, which has to be done before the measurement.
+     */
+    static OutlierAttribution start() {
+        var attribution = new OutlierAttribution();
+        attribution.stream.startAsync();
+        return attribution;
+    }
+
+    private void onEvent(RecordedEvent event) {
+        if (event.getEventType().getName().equals("jdk.ThreadPark") && !isMeasuring(event.getThread())) {
+            return; // other threads park all the time, and it does not slow down the measured calls
+        }
+        var cause = Cause.of(event.getEventType().getName());
+        long startTime = toNanoTime(event.getStartTime());
+        long finishTime = startTime + event.getDuration().toNanos();
+        synchronized (events) {
+            events.add(new Event(cause, startTime, finishTime));
+        }
+    }
+
+    private static boolean isMeasuring(RecordedThread thread) {
+        return thread != null && thread.getJavaName() != null
+                && (thread.getJavaName().equals("main") || thread.getJavaName().startsWith("measure-"));
+    }
+
+    private long toNanoTime(Instant instant) {
+        return streamStartTime + Duration.between(streamStartInstant, instant).toNanos();
+    }
+
+    /**
+     * Stops streaming, waiting for the events that are not yet consumed, and prints which causes explain
+     * how much of the time of the calls that were slower than the fastest one multiplied by given factor.
+     */
+    void stopAndPrint(Intervals intervals, double outlierFactor) {
+        stream.stop();
+        stream.close();
+        if (intervals.size == 0) {
+            return;
+        }
+        long minCallTime = Long.MAX_VALUE;
+        for (int i = 0; i < intervals.size; i++) {
+            minCallTime = Math.min(minCallTime, intervals.callTime(i));
+        }
+        Event[] sortedEvents;
+        synchronized (events) {
+            sortedEvents = events.toArray(new Event[0]);
+        }
+        Arrays.sort(sortedEvents, Comparator.comparingLong(Event::startTime));
+        long maxEventTime = 0;
+        for (Event event : sortedEvents) {
+            maxEventTime = Math.max(maxEventTime, event.finishTime - event.startTime);
+        }
+
+        int outliers = 0;
+        long outlierTime = 0;
+        long[] explainedTime = new long[Cause.values().length];
+        int[] touchedOutliers = new int[Cause.values().length];
+        for (int i = 0; i < intervals.size; i++) {
+            if (intervals.callTime(i) <= minCallTime * outlierFactor) {
+                continue;
+            }
+            long startTime = intervals.startTimes[i];
+            long finishTime = intervals.finishTimes[i];
+            long excessTime = (finishTime - startTime) - minCallTime * intervals.calls[i];
+            outliers++;
+            outlierTime += excessTime;
+            List<Event> overlapping = overlapping(sortedEvents, startTime, finishTime, maxEventTime);
+            long[] causeTime = attribute(overlapping, startTime, finishTime);
+            for (Cause cause : Cause.values()) {
+                if (overlapping.stream().anyMatch(event -> event.cause == cause)) {
+                    touchedOutliers[cause.ordinal()]++;
+                }
+                long given = Math.min(causeTime[cause.ordinal()], excessTime);
+                explainedTime[cause.ordinal()] += given;
+                excessTime -= given;
+            }
+        }
+
+        out.printf("%d outliers slower than %.3f ms per call exceed it by %.3f ms in total, %d JVM events recorded%n",
+                outliers,
+                minCallTime * outlierFactor / 1000.0 / 1000.0,
+                outlierTime / 1000.0 / 1000.0,
+                sortedEvents.length
+        );
+        if (outliers == 0) {
+            return;
+        }
+        long unexplainedTime = outlierTime;
+        out.printf("%-16s %10s %12s %10s%n", "cause", "outliers", "explained", "fraction");
+        for (Cause cause : Cause.values()) {
+            unexplainedTime -= explainedTime[cause.ordinal()];
+            out.printf("%-16s %10d %9.3f ms %9.1f%%%n",
+                    cause.name().toLowerCase(),
+                    touchedOutliers[cause.ordinal()],
+                    explainedTime[cause.ordinal()] / 1000.0 / 1000.0,
+                    100.0 * explainedTime[cause.ordinal()] / outlierTime
+            );
+        }
+        out.printf("%-16s %10s %9.3f ms %9.1f%%%n",
+                "unexplained",
+                "",
+                unexplainedTime / 1000.0 / 1000.0,
+                100.0 * unexplainedTime / outlierTime
+        );
+    }
+
+    /**
+     * Finds events overlapping given time, even zero length ones, in the events sorted by start time.
+     */
+    private static List<Event> overlapping(Event[] sortedEvents, long startTime, long finishTime, long maxEventTime) {
+        // the events that start after the interval finishes can't overlap it
+        int low = 0;
+        int high = sortedEvents.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedEvents[mid].startTime <= finishTime) low = mid + 1; else high = mid;
+        }
+        List<Event> overlapping = new ArrayList<>();
+        for (int i = low - 1; i >= 0 && sortedEvents[i].startTime >= startTime - maxEventTime; i--) {
+            if (sortedEvents[i].finishTime >= startTime) {
+                overlapping.add(sortedEvents[i]);
+            }
+        }
+        return overlapping;
+    }
+
+    /**
+     * Splits the interval at the boundaries of the events, and gives each piece to the first cause covering it.
+     */
+    private static long[] attribute(List<Event> overlapping, long startTime, long finishTime) {
+        long[] causeTime = new long[Cause.values().length];
+        long[] boundaries = new long[overlapping.size() * 2 + 2];
+        int count = 0;
+        boundaries[count++] = startTime;
+        boundaries[count++] = finishTime;
+        for (Event event : overlapping) {
+            boundaries[count++] = Math.max(startTime, event.startTime);
+            boundaries[count++] = Math.min(finishTime, event.finishTime);
+        }
+        Arrays.sort(boundaries, 0, count);
+        for (int i = 1; i < count; i++) {
+            long pieceStart = boundaries[i - 1];
+            long pieceFinish = boundaries[i];
+            if (pieceStart == pieceFinish) {
+                continue;
+            }
+            Cause first = null;
+            for (Event event : overlapping) {
+                if (event.startTime <= pieceStart && event.finishTime >= pieceFinish
+                        && (first == null || event.cause.compareTo(first) < 0)) {
+                    first = event.cause;
+                }
+            }
+            if (first != null) {
+                causeTime[first.ordinal()] += pieceFinish - pieceStart;
+            }
+        }
+        return causeTime;
+    }
+
+    /**
+     * Start and finish times of the timed calls, or batches of calls, allocated up front for all of them,
+     * so that recording does not allocate in the middle of measurement, and cause the pauses it's to explain.
+     */
+    static class Intervals {
+        private final long[] startTimes;
+        private final long[] finishTimes;
+        private final long[] calls;
+        private int size;
+
+        Intervals(long capacity) {
+            checkArgument(capacity <= Integer.MAX_VALUE - 8, "%s timed batches are too many to be kept", capacity);
+            startTimes = new long[(int) capacity];
+            finishTimes = new long[(int) capacity];
+            calls = new long[(int) capacity];
+        }
+
+        void record(long startTime, long finishTime, long count) {
+            checkState(size < startTimes.length, "intervals of %s timed batches are full", startTimes.length);
+            startTimes[size] = startTime;
+            finishTimes[size] = finishTime;
+            calls[size] = count;
+            size++;
+        }
+
+        void add(Intervals other) {
+            for (int i = 0; i < other.size; i++) {
+                record(other.startTimes[i], other.finishTimes[i], other.calls[i]);
+            }
+        }
+
+        private long callTime(int i) {
+            return (finishTimes[i] - startTimes[i]) / calls[i];
+        }
+    }
+}
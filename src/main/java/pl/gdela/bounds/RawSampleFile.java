@@ -0,0 +1,189 @@
+package pl.gdela.bounds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * File of raw samples, each being the start of a timed batch of calls, in nanoseconds from the start of
+ * the file, the time one call of the batch took on average, and the number of calls in the batch, so that
+ * runs of hundreds of millions of calls can be analyzed offline in full detail, see {@link RawSampleReport}.
+ * Each thread writes to its own region of the file, which is memory mapped up front, so that recording
+ * a sample is just three writes to memory, without allocation.
+ * <p>
+ * The file starts with a header of {@link #DATA_OFFSET} bytes: magic number, number of threads, size of
+ * a sample in bytes, capacity of each region in samples, start time of the file in milliseconds since the
+ * epoch, and the number of samples written by each thread. All numbers are little endian.
+ */
+class RawSampleFile implements AutoCloseable {
+
+    static final long MAGIC = 0x5241_5753_414d_504cL; // "RAWSAMPL"
+    static final int SAMPLE_SIZE = 24;
+    static final int MAX_THREADS = (4096 - 32) / 8;
+    static final long DATA_OFFSET = 4096;
+    private static final int CHUNK_SIZE = SAMPLE_SIZE << 25; // of whole samples, as a mapped buffer can't be bigger than 2 GB
+    private static final int PAGE_SIZE = 4096;
+
+    private final FileChannel channel;
+    private final int threads;
+    private final long capacity;
+    private final Region[] regions;
+
+    private RawSampleFile(FileChannel channel, int threads, long capacity, Region[] regions) {
+        this.channel = channel;
+        this.threads = threads;
+        this.capacity = capacity;
+        this.regions = regions;
+    }
+
+    /**
+     * Creates the file and maps regions for given number of threads, each for given number of samples.
+     */
+    static RawSampleFile create(Path path, int threads, long capacity) throws IOException {
+        checkArgument(threads > 0 && threads <= MAX_THREADS, "number of threads %s is out of range", threads);
+        var channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        var header = ByteBuffer.allocate((int) DATA_OFFSET).order(LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(threads).putInt(SAMPLE_SIZE).putLong(capacity).putLong(System.currentTimeMillis());
+        channel.write(header.rewind(), 0);
+        Region[] regions = new Region[threads];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            MappedByteBuffer[] chunks = map(channel, READ_WRITE, regionOffset(i, capacity), capacity);
+            for (MappedByteBuffer chunk : chunks) {
+                preTouch(chunk);
+            }
+            regions[i] = new Region(chunks, capacity, startTime);
+        }
+        return new RawSampleFile(channel, threads, capacity, regions);
+    }
+
+    Region region(int thread) {
+        return regions[thread];
+    }
+
+    private static long regionOffset(int thread, long capacity) {
+        return DATA_OFFSET + thread * capacity * SAMPLE_SIZE;
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long offset, long samples) throws IOException {
+        long bytes = samples * SAMPLE_SIZE;
+        var chunks = new MappedByteBuffer[(int) ((bytes + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        for (int i = 0; i < chunks.length; i++) {
+            long chunkOffset = (long) i * CHUNK_SIZE;
+            chunks[i] = channel.map(mode, offset + chunkOffset, Math.min(CHUNK_SIZE, bytes - chunkOffset));
+            chunks[i].order(LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    /**
+     * Writes to each page of the chunk, so that the pages are faulted in, and the blocks of the file allocated,
+     * now and not on the first sample written to each page, which would be a stall in the middle of measurement,
+     * every 170 or so samples, just like the periodic stalls that {@link RawSampleReport} looks for.
+     */
+    private static void preTouch(MappedByteBuffer chunk) {
+        for (int offset = 0; offset < chunk.capacity(); offset += PAGE_SIZE) {
+            chunk.put(offset, (byte) 0);
+        }
+    }
+
+    /**
+     * Writes the number of samples of each thread to the header, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        var counts = ByteBuffer.allocate(threads * 8).order(LITTLE_ENDIAN);
+        for (Region region : regions) {
+            counts.putLong(region.size);
+            for (MappedByteBuffer chunk : region.chunks) {
+                chunk.force();
+            }
+        }
+        channel.write(counts.rewind(), 32);
+        channel.close();
+    }
+
+    /**
+     * Samples of one thread, to be written only by that thread.
+     */
+    static class Region {
+        private static final int CHUNK_SAMPLES = CHUNK_SIZE / SAMPLE_SIZE;
+
+        private final MappedByteBuffer[] chunks;
+        private final long capacity;
+        private final long startTime;
+        private long size;
+
+        private Region(MappedByteBuffer[] chunks, long capacity, long startTime) {
+            this.chunks = chunks;
+            this.capacity = capacity;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Records batch of given number of calls started at given {@link System#nanoTime()}, each of which
+         * took given nanoseconds on average.
+         */
+        void record(long sampleStartTime, long sampleTime, long count) {
+            checkState(size < capacity, "region of %s samples is full", capacity);
+            var chunk = chunks[(int) (size / CHUNK_SAMPLES)];
+            int offset = (int) (size % CHUNK_SAMPLES) * SAMPLE_SIZE;
+            chunk.putLong(offset, sampleStartTime - startTime);
+            chunk.putLong(offset + 8, sampleTime);
+            chunk.putLong(offset + 16, count);
+            size++;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long timestamp(long i) {
+            return chunks[(int) (i / CHUNK_SAMPLES)].getLong((int) (i % CHUNK_SAMPLES) * SAMPLE_SIZE);
+        }
+
+        long duration(long i) {
+            return chunks[(int) (i / CHUNK_SAMPLES)].getLong((int) (i % CHUNK_SAMPLES) * SAMPLE_SIZE + 8);
+        }
+
+        long count(long i) {
+            return chunks[(int) (i / CHUNK_SAMPLES)].getLong((int) (i % CHUNK_SAMPLES) * SAMPLE_SIZE + 16);
+        }
+    }
+
+    /**
+     * Opens the file for reading, returning a region of each thread with samples that it has written.
+     */
+    static Region[] read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, READ)) {
+            var header = ByteBuffer.allocate((int) DATA_OFFSET).order(LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            checkArgument(header.getLong() == MAGIC, "%s is not a raw sample file", path);
+            int threads = header.getInt();
+            int sampleSize = header.getInt();
+            checkArgument(sampleSize == SAMPLE_SIZE, "%s has samples of %s bytes, but expected %s", path, sampleSize, SAMPLE_SIZE);
+            long capacity = header.getLong();
+            header.getLong(); // start time, not needed for the analysis
+            Region[] regions = new Region[threads];
+            for (int i = 0; i < threads; i++) {
+                long size = header.getLong();
+                regions[i] = new Region(map(channel, READ_ONLY, regionOffset(i, capacity), size), size, 0);
+                regions[i].size = size;
+            }
+            return regions; // mapped buffers stay valid after the channel is closed
+        }
+    }
+}
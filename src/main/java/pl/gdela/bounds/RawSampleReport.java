@@ -0,0 +1,173 @@
+package pl.gdela.bounds;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+import static java.lang.System.out;
+
+/**
+ * Analyzes a file of raw samples written by {@link Measure}: prints the distribution of call times and
+ * writes it as a histogram, writes a time series of call times in windows, ready to be plotted, and
+ * prints the autocorrelation of stalls, that is calls slower than the median by some factor, which
+ * shows if stalls come periodically, like with a timer interrupt or a periodic GC.
+ */
+public class RawSampleReport {
+
+    @Parameter(description = "File with raw samples, for example samples-main.raw", required = true)
+    private String fileName;
+
+    @Parameter(names = "-w", description = "Width of window of time series, in milliseconds")
+    private double window = 100;
+
+    @Parameter(names = "-s", description = "How many times slower than the median is a stall")
+    private double stallFactor = 2;
+
+    @Parameter(names = "-q", description = "Width of time slot for autocorrelation of stalls, in milliseconds")
+    private double slot = 1;
+
+    @Parameter(names = "-l", description = "Maximum lag of autocorrelation of stalls, in slots")
+    private int maxLag = 1000;
+
+    public static void main(String[] args) throws IOException {
+        RawSampleReport main = new RawSampleReport();
+        JCommander.newBuilder().addObject(main).build().parse(args);
+        main.run();
+    }
+
+    private void run() throws IOException {
+        double scalingRatio = 1_000_000.0;
+        var regions = RawSampleFile.read(Path.of(fileName));
+        var histogram = new Histogram(1, 3600_000_000_000L, 3); // of calls, so each sample is weighted by its count
+        long samples = 0;
+        long lastTimestamp = 0;
+        for (RawSampleFile.Region region : regions) {
+            for (long i = 0; i < region.size(); i++) {
+                histogram.recordValueWithCount(region.duration(i), region.count(i));
+                lastTimestamp = Math.max(lastTimestamp, region.timestamp(i));
+            }
+            samples += region.size();
+        }
+        out.printf("%d calls in %d samples of %d threads during %.1f ms%n",
+                histogram.getTotalCount(),
+                samples,
+                regions.length,
+                lastTimestamp / scalingRatio
+        );
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        String baseName = fileName.replaceFirst("\\.raw$", "");
+        try (PrintStream log = new PrintStream(baseName + "-histogram.log")) {
+            histogram.outputPercentileDistribution(log, scalingRatio);
+        }
+        out.printf("min %.3f ms, med %.3f ms, p99 %.3f ms, p99.99 %.3f ms, max %.3f ms, %s%n",
+                histogram.getMinValue() / scalingRatio,
+                histogram.getValueAtPercentile(50) / scalingRatio,
+                histogram.getValueAtPercentile(99) / scalingRatio,
+                histogram.getValueAtPercentile(99.99) / scalingRatio,
+                histogram.getMaxValue() / scalingRatio,
+                baseName + "-histogram.log"
+        );
+
+        writeTimeSeries(regions, lastTimestamp, baseName + "-series.csv");
+
+        long stallTime = (long) (histogram.getValueAtPercentile(50) * stallFactor);
+        printStallAutocorrelation(regions, lastTimestamp, stallTime);
+    }
+
+    /**
+     * Writes number of calls, median, 99th percentile and maximum of call times of each window, one line per window.
+     */
+    private void writeTimeSeries(RawSampleFile.Region[] regions, long lastTimestamp, String seriesFileName) throws IOException {
+        double scalingRatio = 1_000_000.0;
+        long windowTime = (long) (window * 1_000_000);
+        int windows = (int) (lastTimestamp / windowTime) + 1;
+        Histogram[] histograms = new Histogram[windows];
+        for (RawSampleFile.Region region : regions) {
+            for (long i = 0; i < region.size(); i++) {
+                int w = (int) (region.timestamp(i) / windowTime);
+                if (histograms[w] == null) {
+                    histograms[w] = new Histogram(1, 3600_000_000_000L, 2);
+                }
+                histograms[w].recordValueWithCount(region.duration(i), region.count(i));
+            }
+        }
+        try (PrintStream series = new PrintStream(seriesFileName)) {
+            series.printf("start_ms,count,p50_ms,p99_ms,max_ms%n");
+            for (int w = 0; w < windows; w++) {
+                if (histograms[w] == null) {
+                    series.printf("%.3f,0,,,%n", w * window);
+                    continue;
+                }
+                series.printf("%.3f,%d,%.6f,%.6f,%.6f%n",
+                        w * window,
+                        histograms[w].getTotalCount(),
+                        histograms[w].getValueAtPercentile(50) / scalingRatio,
+                        histograms[w].getValueAtPercentile(99) / scalingRatio,
+                        histograms[w].getMaxValue() / scalingRatio
+                );
+            }
+        }
+        out.printf("time series of %d windows of %.1f ms written to %s%n", windows, window, seriesFileName);
+    }
+
+    /**
+     * Splits the run into slots, marks slots in which some call stalled, and prints the lags at which
+     * the marks are most correlated, so if stalls are every 4 ms, the lag of 4 ms comes first.
+     */
+    private void printStallAutocorrelation(RawSampleFile.Region[] regions, long lastTimestamp, long stallTime) {
+        long slotTime = (long) (slot * 1_000_000);
+        int slots = (int) (lastTimestamp / slotTime) + 1;
+        double[] stalls = new double[slots];
+        long stallCount = 0;
+        for (RawSampleFile.Region region : regions) {
+            for (long i = 0; i < region.size(); i++) {
+                if (region.duration(i) > stallTime) {
+                    stalls[(int) (region.timestamp(i) / slotTime)] = 1;
+                    stallCount++;
+                }
+            }
+        }
+        double mean = 0;
+        for (double stall : stalls) mean += stall;
+        mean /= slots;
+        double variance = 0;
+        for (double stall : stalls) variance += (stall - mean) * (stall - mean);
+        out.printf("%d stalls slower than %.3f ms, in %.1f%% of %d slots of %.1f ms%n",
+                stallCount,
+                stallTime / 1_000_000.0,
+                100 * mean,
+                slots,
+                slot
+        );
+        if (variance == 0) {
+            return;
+        }
+        int lags = Math.min(maxLag, slots / 2);
+        double[] correlations = new double[lags + 1];
+        for (int lag = 1; lag <= lags; lag++) {
+            double covariance = 0;
+            for (int i = 0; i + lag < slots; i++) {
+                covariance += (stalls[i] - mean) * (stalls[i + lag] - mean);
+            }
+            correlations[lag] = covariance / variance;
+        }
+        out.printf("lags with highest autocorrelation of stalls:%n");
+        boolean[] printed = new boolean[lags + 1];
+        for (int top = 0; top < 5 && top < lags; top++) {
+            int best = 0;
+            for (int lag = 1; lag <= lags; lag++) {
+                if (!printed[lag] && (best == 0 || correlations[lag] > correlations[best])) {
+                    best = lag;
+                }
+            }
+            printed[best] = true;
+            out.printf("%10.1f ms %8.3f%n", best * slot, correlations[best]);
+        }
+    }
+}
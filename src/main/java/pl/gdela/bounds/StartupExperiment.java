@@ -0,0 +1,261 @@
+package pl.gdela.bounds;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.System.out;
+
+/**
+ * Measures how quickly a {@link Measure} target gets going in a fresh JVM, for jobs that live so short that
+ * the startup is a good part of their time. Each target is started in child JVMs with each configuration
+ * of class data sharing and tiered compilation, a few times, and the medians of the time to main(), to the
+ * first call, and to the steady state found by the adaptive warmup, of the number of loaded classes and of
+ * the time spent by the JIT, as {@code -XX:+CITime} prints it, are printed in one table, to be compared.
+ * <p>
+ * The AppCDS archive of each target is dumped by a training run with {@code -XX:ArchiveClassesAtExit}.
+ * CDS does not accept directories on the class path, so they are packed into jars, which all runs use,
+ * so that the configurations differ only in their flags.
+ */
+public class StartupExperiment {
+
+    private static final String ARCHIVE = "{archive}"; // replaced with the AppCDS archive of the target
+
+    private static final Map<String, String> CONFIGURATIONS = new LinkedHashMap<>();
+    static {
+        CONFIGURATIONS.put("default_cds", ""); // the archive of JDK classes is used by default since JDK 12
+        CONFIGURATIONS.put("no_cds", "-Xshare:off");
+        CONFIGURATIONS.put("app_cds", "-XX:SharedArchiveFile=" + ARCHIVE);
+        CONFIGURATIONS.put("c1_only", "-XX:TieredStopAtLevel=1");
+        CONFIGURATIONS.put("no_tiered", "-XX:-TieredCompilation");
+    }
+
+    private static final Pattern MAIN_TIME = Pattern.compile("method main\\(\\) entered at (\\d+) ms");
+    private static final Pattern FIRST_CALL_TIME = Pattern.compile("first call finished at (\\d+) ms");
+    private static final Pattern STEADY_TIME = Pattern.compile("warmup stable at (\\d+) ms");
+    private static final Pattern NOT_STEADY = Pattern.compile("warmup not stable at \\d+ ms");
+    private static final Pattern LOADED_CLASSES = Pattern.compile("measurement finished at \\d+ ms, (\\d+) classes loaded");
+    private static final Pattern JIT_TIME = Pattern.compile("Total compilation time\\s*:\\s*([\\d.]+) s");
+
+    @Parameter(names = "-m", required = true, description = "Targets of Measure, for example CpuHeavy.sum,MemoryHeavy.random")
+    private List<String> targets;
+
+    @Parameter(names = "-a", description = "Options of Measure, the same for each run, adaptive warmup is added if missing")
+    private String measureOptions = "-i 1000 -m 30";
+
+    @Parameter(names = "-c", description = "Configurations, each a name of a known one, or names joined with +, or name=flags")
+    private List<String> configurations = new ArrayList<>(CONFIGURATIONS.keySet());
+
+    @Parameter(names = "-r", description = "Number of runs of each configuration, of which medians are taken")
+    private int repetitions = 5;
+
+    @Parameter(names = "-o", description = "Directory for the output of runs")
+    private String outputDirectory = "startup-experiment";
+
+    private record Run(String name, String target, String flags) {
+    }
+
+    /**
+     * Medians of the runs in milliseconds, or null if some run failed, then failure says why. Runs in which
+     * warmup reached its cap without being stable are counted, and their time to steady state is not known.
+     */
+    private record Result(Run run, double[] medians, int unstableRuns, String failure) {
+    }
+
+    private static final String[] COLUMNS = { "main ms", "first call ms", "steady ms", "classes", "jit ms" };
+    private static final int STEADY_COLUMN = 2;
+
+    public static void main(String[] args) throws Exception {
+        StartupExperiment main = new StartupExperiment();
+        JCommander.newBuilder().addObject(main).build().parse(args);
+        main.run();
+    }
+
+    private void run() throws Exception {
+        checkArgument(repetitions > 0, "number of runs must be positive");
+        List<Run> runs = matrix();
+        Path output = Path.of(outputDirectory).toAbsolutePath(); // as each child JVM runs in a directory of its own
+        Files.createDirectories(output);
+        String classPath = packedClassPath(output.resolve("classpath"));
+
+        List<Result> results = new ArrayList<>();
+        for (String target : targets) {
+            Path archive = output.resolve(target + ".jsa");
+            String trainingFailure = null;
+            if (runs.stream().anyMatch(run -> run.target.equals(target) && run.flags.contains(ARCHIVE))) {
+                out.printf("dumping AppCDS archive of %s%n", target);
+                Files.deleteIfExists(archive);
+                String failure = execute(target, "-XX:ArchiveClassesAtExit=" + archive, classPath, output.resolve(target + "-training.log"));
+                if (failure == null && !Files.exists(archive)) {
+                    failure = "archive not dumped, see " + output.resolve(target + "-training.log");
+                }
+                if (failure != null) {
+                    out.printf("training of %s failed: %s%n", target, failure);
+                    trainingFailure = "no AppCDS archive, training failed: " + failure;
+                }
+            }
+            for (Run run : runs) {
+                if (!run.target.equals(target)) {
+                    continue;
+                }
+                if (run.flags.contains(ARCHIVE) && trainingFailure != null) {
+                    // the JVM would just warn about the missing archive, and run without it, as if it was not app_cds
+                    results.add(new Result(run, null, 0, trainingFailure));
+                    continue;
+                }
+                out.printf("run %d of %d: %s%n", results.size() + 1, runs.size(), run.name);
+                results.add(execute(run, run.flags.replace(ARCHIVE, archive.toString()), classPath));
+            }
+        }
+        printTable(results, System.out);
+        try (PrintStream summary = new PrintStream(output.resolve("summary.txt").toFile())) {
+            printTable(results, summary);
+        }
+    }
+
+    private List<Run> matrix() {
+        List<Run> runs = new ArrayList<>();
+        for (String target : targets) {
+            for (String configuration : configurations) {
+                String name = configuration.contains("=") ? configuration.substring(0, configuration.indexOf('=')) : configuration;
+                runs.add(new Run(target + "_" + name, target, flags(configuration)));
+            }
+        }
+        return runs;
+    }
+
+    private static String flags(String configuration) {
+        if (configuration.contains("=")) {
+            return configuration.substring(configuration.indexOf('=') + 1);
+        }
+        List<String> flags = new ArrayList<>();
+        for (String name : configuration.split("\\+")) {
+            checkArgument(CONFIGURATIONS.containsKey(name), "unknown configuration %s, known are %s", name, CONFIGURATIONS.keySet());
+            flags.add(CONFIGURATIONS.get(name));
+        }
+        return String.join(" ", flags).trim();
+    }
+
+    /**
+     * Returns the class path of this JVM, with each directory packed into a jar of its own.
+     */
+    private static String packedClassPath(Path jarDirectory) throws IOException {
+        Files.createDirectories(jarDirectory);
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            Path path = Path.of(entry).toAbsolutePath();
+            if (!Files.isDirectory(path)) {
+                entries.add(path.toString());
+                continue;
+            }
+            Path jar = jarDirectory.resolve(entries.size() + "-" + path.getFileName() + ".jar");
+            try (JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jar)); Stream<Path> files = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                    stream.putNextEntry(new JarEntry(path.relativize(file).toString().replace('\\', '/')));
+                    Files.copy(file, stream);
+                    stream.closeEntry();
+                }
+            }
+            entries.add(jar.toString());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private Result execute(Run run, String flags, String classPath) throws IOException, InterruptedException {
+        Path directory = Path.of(outputDirectory, run.name).toAbsolutePath();
+        Files.createDirectories(directory);
+        double[][] values = new double[COLUMNS.length][repetitions];
+        int unstableRuns = 0;
+        for (int i = 0; i < repetitions; i++) {
+            Path log = directory.resolve("run-" + (i + 1) + ".log");
+            String failure = execute(run.target, flags, classPath, log);
+            if (failure != null) {
+                return new Result(run, null, 0, failure);
+            }
+            String output = Files.readString(log);
+            Pattern[] patterns = { MAIN_TIME, FIRST_CALL_TIME, STEADY_TIME, LOADED_CLASSES, JIT_TIME };
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (patterns[column] == STEADY_TIME && NOT_STEADY.matcher(output).find()) {
+                    unstableRuns++;
+                    values[column][i] = Double.NaN;
+                    continue;
+                }
+                Matcher matcher = patterns[column].matcher(output);
+                if (!matcher.find()) {
+                    return new Result(run, null, 0, "no match of '" + patterns[column] + "' in " + log);
+                }
+                values[column][i] = Double.parseDouble(matcher.group(1));
+            }
+            values[4][i] *= 1000; // CITime prints seconds
+        }
+        double[] medians = new double[COLUMNS.length];
+        for (int column = 0; column < COLUMNS.length; column++) {
+            Arrays.sort(values[column]);
+            medians[column] = values[column][repetitions / 2];
+        }
+        return new Result(run, medians, unstableRuns, null);
+    }
+
+    /**
+     * Runs Measure of the target in a child JVM with given flags, and returns why it failed, or null if it did not.
+     */
+    private String execute(String target, String flags, String classPath, Path log) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of("-XX:+UnlockDiagnosticVMOptions", "-XX:+CITime")); // the same as jit_stat of environment.sh
+        if (!flags.isBlank()) command.addAll(Arrays.asList(flags.trim().split("\\s+")));
+        command.addAll(List.of("-cp", classPath, Measure.class.getName(), target));
+        List<String> options = Arrays.asList(measureOptions.trim().split("\\s+"));
+        command.addAll(options);
+        if (!options.contains("-a")) command.add("-a"); // so that the time to steady state is known
+        Files.writeString(log, String.join(" ", command) + "\n\n");
+        int exitValue = new ProcessBuilder(command)
+                .directory(log.getParent().toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()))
+                .start()
+                .waitFor();
+        return exitValue == 0 ? null : "exit value " + exitValue + ", see " + log;
+    }
+
+    private void printTable(List<Result> results, PrintStream out) {
+        int nameWidth = results.stream().mapToInt(result -> result.run.name.length()).max().orElse(3);
+        out.printf("medians of %d runs%n", repetitions);
+        out.printf("%-" + nameWidth + "s", "run");
+        for (String column : COLUMNS) {
+            out.printf(" %14s", column);
+        }
+        out.printf("%n");
+        for (Result result : results) {
+            out.printf("%-" + nameWidth + "s", result.run.name);
+            if (result.medians == null) {
+                out.printf(" %s%n", result.failure);
+                continue;
+            }
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (column == STEADY_COLUMN && result.unstableRuns > 0) {
+                    out.printf(" %14s", "not stable " + result.unstableRuns + "/" + repetitions);
+                } else {
+                    out.printf(" %14.0f", result.medians[column]);
+                }
+            }
+            out.printf("%n");
+        }
+    }
+}
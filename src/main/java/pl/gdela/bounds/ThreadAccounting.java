@@ -0,0 +1,109 @@
+package pl.gdela.bounds;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * What the current thread has used up to now: memory allocated, time on CPU, and how many times it
+ * was switched out, voluntarily by blocking, or involuntarily by being preempted, which together tell
+ * if a slower run was slower because of allocation, or because it was descheduled by the OS.
+ * <p>
+ * Context switches and the time spent waiting for CPU are read from {@code /proc/thread-self}, so they
+ * are known only on Linux, otherwise they are -1. Reading them allocates, so it's not for the hot loop,
+ * unlike {@link #currentAllocatedBytes()}, which is cheap.
+ */
+record ThreadAccounting(
+        long allocatedBytes,
+        long cpuTime,
+        long voluntarySwitches,
+        long involuntarySwitches,
+        long waitTime) {
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Path STATUS = Path.of("/proc/thread-self/status");
+    private static final Path SCHEDSTAT = Path.of("/proc/thread-self/schedstat");
+
+    static ThreadAccounting current() {
+        long voluntarySwitches = -1;
+        long involuntarySwitches = -1;
+        long waitTime = -1;
+        try {
+            List<String> status = Files.readAllLines(STATUS);
+            voluntarySwitches = statusValue(status, "voluntary_ctxt_switches:");
+            involuntarySwitches = statusValue(status, "nonvoluntary_ctxt_switches:");
+            // time on cpu, time waiting on a runqueue, both in nanoseconds, and number of timeslices
+            waitTime = Long.parseLong(Files.readString(SCHEDSTAT).trim().split(" ")[1]);
+        } catch (IOException | RuntimeException e) {
+            // not on linux, or the kernel does not have the stats, they are left unknown
+        }
+        return new ThreadAccounting(
+                currentAllocatedBytes(),
+                threadBean.getCurrentThreadCpuTime(),
+                voluntarySwitches,
+                involuntarySwitches,
+                waitTime
+        );
+    }
+
+    /**
+     * Returns bytes allocated by the current thread up to now, without allocating anything itself.
+     */
+    static long currentAllocatedBytes() {
+        return threadBean.getCurrentThreadAllocatedBytes();
+    }
+
+    private static long statusValue(List<String> status, String key) {
+        for (String line : status) {
+            if (line.startsWith(key)) {
+                return Long.parseLong(line.substring(key.length()).trim());
+            }
+        }
+        return -1;
+    }
+
+    ThreadAccounting minus(ThreadAccounting earlier) {
+        return new ThreadAccounting(
+                allocatedBytes - earlier.allocatedBytes,
+                cpuTime - earlier.cpuTime,
+                unknownOrMinus(voluntarySwitches, earlier.voluntarySwitches),
+                unknownOrMinus(involuntarySwitches, earlier.involuntarySwitches),
+                unknownOrMinus(waitTime, earlier.waitTime)
+        );
+    }
+
+    ThreadAccounting plus(ThreadAccounting other) {
+        return new ThreadAccounting(
+                allocatedBytes + other.allocatedBytes,
+                cpuTime + other.cpuTime,
+                unknownOrPlus(voluntarySwitches, other.voluntarySwitches),
+                unknownOrPlus(involuntarySwitches, other.involuntarySwitches),
+                unknownOrPlus(waitTime, other.waitTime)
+        );
+    }
+
+    private static long unknownOrMinus(long value, long other) {
+        return value < 0 || other < 0 ? -1 : value - other;
+    }
+
+    private static long unknownOrPlus(long value, long other) {
+        return value < 0 || other < 0 ? -1 : value + other;
+    }
+
+    /**
+     * Describes what was used by given number of calls, which took given wall time on all threads together.
+     */
+    String describe(long calls, long wallTime) {
+        return String.format("%.1f bytes/op, cpu %.1f%% of wall time, %s voluntary and %s involuntary context switches, %s ms waiting for cpu",
+                (double) allocatedBytes / calls,
+                100.0 * cpuTime / wallTime,
+                voluntarySwitches < 0 ? "n/a" : voluntarySwitches,
+                involuntarySwitches < 0 ? "n/a" : involuntarySwitches,
+                waitTime < 0 ? "n/a" : String.format("%.3f", waitTime / 1000.0 / 1000.0)
+        );
+    }
+}
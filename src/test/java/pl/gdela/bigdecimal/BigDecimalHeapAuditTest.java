@@ -0,0 +1,76 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BigDecimalHeapAuditTest {
+
+    static class Holder {
+        BigDecimal price;
+        final BigDecimal quantity;
+        List<BigDecimal> history = new ArrayList<>();
+        Holder next;
+
+        Holder(BigDecimal price, BigDecimal quantity) {
+            this.price = price;
+            this.quantity = quantity;
+        }
+    }
+
+    @Test
+    void finds_wasteful_decimals() {
+        // given
+        BigDecimal printed = BigDecimal.valueOf(12345, 2);
+        printed.toString();
+        var holder = new Holder(inflated(100, 2), printed);
+        holder.history.add(inflated(200, 2));
+        holder.history.add(BigDecimal.valueOf(300, 2));
+        holder.next = new Holder(inflated(Long.MAX_VALUE, 0).add(BigDecimal.ONE), BigDecimal.ONE); // too big for long
+        holder.next.next = holder; // cycle
+
+        // when
+        var report = BigDecimalHeapAudit.audit(holder);
+
+        // then
+        assertThat(report.decimals()).isEqualTo(6);
+        assertThat(report.inflatedFittingInLong()).isEqualTo(2);
+        assertThat(report.withStringCache()).isEqualTo(1);
+        assertThat(report.reclaimableBytes()).isPositive();
+        assertThat(report.replaced()).isZero();
+        assertThat(GraphLayout.parseInstance(holder.price).totalCount()).isGreaterThan(1); // still inflated
+    }
+
+    @Test
+    void recompacts_wasteful_decimals() {
+        // given
+        BigDecimal printed = BigDecimal.valueOf(12345, 2);
+        printed.toString();
+        var holder = new Holder(inflated(100, 2), printed);
+        holder.history.add(inflated(200, 2));
+        BigDecimal[] array = { inflated(-5, 1), holder.price };
+
+        // when
+        var report = BigDecimalHeapAudit.recompact(new Object[] { holder, array });
+
+        // then
+        assertThat(report.replaced()).isEqualTo(5);
+        assertThat(report.notReplaceable()).isZero();
+        assertThat(holder.price).isEqualTo(new BigDecimal("1.00"));
+        assertThat(holder.quantity).isEqualTo(new BigDecimal("123.45"));
+        assertThat(holder.history).containsExactly(new BigDecimal("2.00"));
+        assertThat(array).containsExactly(new BigDecimal("-0.5"), new BigDecimal("1.00"));
+        assertThat(array[1]).isSameAs(holder.price); // shared before, so still shared
+        assertThat(BigDecimalHeapAudit.audit(new Object[] { holder, array }).reclaimableBytes()).isZero();
+    }
+
+    private static BigDecimal inflated(long unscaledValue, int scale) {
+        return new BigDecimal(BigInteger.valueOf(unscaledValue), scale);
+    }
+}
@@ -0,0 +1,69 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DecimalBulkCodecTest {
+
+    @Test
+    void encodes_and_decodes_decimals() {
+        // given
+        BigDecimal[] decimals = new BigDecimal[3 * DecimalBulkCodec.CHUNK_SIZE + 5];
+        for (int i = 0; i < decimals.length; i++) {
+            decimals[i] = switch (i % 4) {
+                case 0 -> BigDecimal.valueOf(i, 2);
+                case 1 -> BigDecimal.valueOf(-i, 5);
+                case 2 -> new BigDecimal(BigInteger.valueOf(i), 3); // inflated, though fits in a long
+                default -> BigDecimal.valueOf(Long.MAX_VALUE, 1).multiply(BigDecimal.valueOf(i)); // too big for a long
+            };
+        }
+
+        // when
+        ByteBuffer encoded = DecimalBulkCodec.encode(decimals, new ForkJoinPool(3));
+        BigDecimal[] decoded = DecimalBulkCodec.decode(encoded, new ForkJoinPool(3));
+
+        // then
+        assertThat(decoded).containsExactly(decimals);
+        assertThat(GraphLayout.parseInstance(decoded[2]).totalCount())
+                .as("decimal that fits in a long is decoded in compact form")
+                .isEqualTo(1);
+    }
+
+    @Test
+    void encodes_and_decodes_column() {
+        // given
+        var column = new DecimalColumn(DecimalBulkCodec.CHUNK_SIZE + 1);
+        for (int i = 0; i < column.size(); i++) {
+            column.set(i, i * 1_000_003L - 5_000_000L, i % 7);
+        }
+
+        // when
+        ByteBuffer encoded = DecimalBulkCodec.encode(column);
+        DecimalColumn decoded = DecimalBulkCodec.decodeColumn(encoded);
+
+        // then
+        assertThat(decoded.unscaledValues()).containsExactly(column.unscaledValues());
+        assertThat(decoded.scales()).containsExactly(column.scales());
+        assertThat(DecimalBulkCodec.decode(encoded)[5]).isEqualTo(column.get(5));
+    }
+
+    @Test
+    void handles_empty_array() {
+        ByteBuffer encoded = DecimalBulkCodec.encode(new BigDecimal[0]);
+        assertThat(DecimalBulkCodec.decode(encoded)).isEmpty();
+    }
+
+    @Test
+    void refuses_to_decode_too_big_into_column() {
+        ByteBuffer encoded = DecimalBulkCodec.encode(new BigDecimal[] { BigDecimal.ONE, new BigDecimal("1e30").add(BigDecimal.ONE) });
+        assertThatThrownBy(() -> DecimalBulkCodec.decodeColumn(encoded)).isInstanceOf(ArithmeticException.class);
+    }
+}
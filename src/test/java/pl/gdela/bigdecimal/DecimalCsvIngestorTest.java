@@ -0,0 +1,140 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DecimalCsvIngestorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reads_column_of_decimals() throws IOException {
+        // given
+        Path file = write("""
+                id,price,quantity
+                1,123.45,10
+                2,-0.5,20\r
+                3,7,30
+                4,+1.000,40""");
+
+        // when
+        DecimalColumn column = new DecimalCsvIngestor(1, true).readColumn(file);
+
+        // then
+        assertThat(decimals(column)).containsExactly(
+                new BigDecimal("123.45"), new BigDecimal("-0.5"), new BigDecimal("7"), new BigDecimal("1.000"));
+    }
+
+    @Test
+    void reads_many_chunks_in_order() throws IOException {
+        // given
+        int numOfLines = 10_000;
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < numOfLines; i++) {
+            csv.append(i).append(",ABCDEF,").append(BigDecimal.valueOf(i, 2)).append('\n');
+        }
+        Path file = write(csv.toString());
+
+        // when
+        var ingestor = new DecimalCsvIngestor(2, false, ForkJoinPool.commonPool(), 1000);
+        DecimalColumn column = ingestor.readColumn(file);
+        var sum = new LongAdder();
+        ingestor.forEach(file, (unscaledValue, scale) -> sum.add(unscaledValue));
+
+        // then
+        assertThat(column.size()).isEqualTo(numOfLines);
+        for (int i = 0; i < numOfLines; i++) {
+            assertThat(column.unscaledValues()[i]).isEqualTo(i);
+            assertThat(column.scales()[i]).isEqualTo(2);
+        }
+        assertThat(sum.sum()).isEqualTo((long) numOfLines * (numOfLines - 1) / 2);
+    }
+
+    @Test
+    void refuses_not_decimals() throws IOException {
+        Path file = write("1,abc\n");
+        assertThatThrownBy(() -> new DecimalCsvIngestor(1, false).readColumn(file))
+                .isInstanceOf(NumberFormatException.class)
+                .hasStackTraceContaining("'1,abc'"); // may be in the cause, when rethrown by fork-join pool
+    }
+
+    @Test
+    void refuses_too_many_digits() throws IOException {
+        Path file = write("1,1234567890.123456789\n");
+        assertThatThrownBy(() -> new DecimalCsvIngestor(1, false).readColumn(file))
+                .isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void refuses_decimals_followed_by_garbage() throws IOException {
+        for (String line : List.of("1,12abc,x", "1,1.2.3", "1,1e5\n", "1,-7 \n")) {
+            Path file = write(line);
+            assertThatThrownBy(() -> new DecimalCsvIngestor(1, false).readColumn(file))
+                    .as(line)
+                    .isInstanceOf(NumberFormatException.class)
+                    .hasStackTraceContaining("'" + line.strip() + "'");
+        }
+    }
+
+    @Test
+    void reads_decimal_at_end_of_file_and_before_next_field() throws IOException {
+        // given
+        Path file = write("1,2.50,x\n2,3.5");
+
+        // when
+        DecimalColumn column = new DecimalCsvIngestor(1, false).readColumn(file);
+
+        // then
+        assertThat(decimals(column)).containsExactly(new BigDecimal("2.50"), new BigDecimal("3.5"));
+    }
+
+    @Test
+    void skips_blank_lines() throws IOException {
+        // given
+        Path file = write("id,price\n1,2.5\n\n2,3\r\n\r\n3,4\n\n");
+
+        // when
+        DecimalColumn column = new DecimalCsvIngestor(1, true).readColumn(file);
+
+        // then
+        assertThat(decimals(column)).containsExactly(new BigDecimal("2.5"), new BigDecimal("3"), new BigDecimal("4"));
+    }
+
+    @Test
+    void does_not_count_leading_zeros_as_digits() throws IOException {
+        // given
+        Path file = write("1,0000000000.000000000000000001\n2,-00000000000000000000123456789012345678\n3,000\n");
+
+        // when
+        DecimalColumn column = new DecimalCsvIngestor(1, false).readColumn(file);
+
+        // then
+        assertThat(decimals(column)).containsExactly(
+                new BigDecimal("1E-18"), new BigDecimal("-123456789012345678"), new BigDecimal("0"));
+    }
+
+    private Path write(String content) throws IOException {
+        return Files.writeString(tempDir.resolve("test.csv"), content);
+    }
+
+    private static List<BigDecimal> decimals(DecimalColumn column) {
+        List<BigDecimal> decimals = new ArrayList<>();
+        for (int i = 0; i < column.size(); i++) {
+            decimals.add(column.get(i));
+        }
+        return decimals;
+    }
+}
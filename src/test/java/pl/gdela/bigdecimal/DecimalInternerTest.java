@@ -0,0 +1,133 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.lang.Runtime.getRuntime;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecimalInternerTest {
+
+    @Test
+    void returns_same_instance_for_same_value() {
+        // given
+        var interner = new DecimalInterner(1024);
+
+        // when
+        BigDecimal first = interner.intern(12345, 2);
+        BigDecimal second = interner.intern(12345, 2);
+        BigDecimal otherScale = interner.intern(12345, 3);
+
+        // then
+        assertThat(first).isEqualTo(new BigDecimal("123.45"));
+        assertThat(second).isSameAs(first);
+        assertThat(otherScale).isEqualTo(new BigDecimal("12.345")).isNotSameAs(first);
+        assertThat(interner.hits()).isEqualTo(1);
+        assertThat(interner.misses()).isEqualTo(2);
+    }
+
+    @Test
+    void does_not_grow_beyond_capacity() {
+        // given
+        var interner = new DecimalInterner(100);
+
+        // when
+        for (long i = 0; i < 100_000; i++) {
+            assertThat(interner.intern(i, 0)).isEqualTo(BigDecimal.valueOf(i));
+        }
+
+        // then
+        assertThat(interner.capacity()).isEqualTo(128);
+        assertThat(interner.misses()).isEqualTo(100_000);
+    }
+
+    @Test
+    void keeps_referenced_values_when_evicting() {
+        // given
+        var interner = new DecimalInterner(DecimalInterner.SET_SIZE); // just one set
+        BigDecimal hot = interner.intern(42, 0);
+
+        // when
+        for (long i = 0; i < 1000; i++) {
+            interner.intern(i + 1000, 0);
+            interner.intern(42, 0); // keeps it referenced
+        }
+
+        // then
+        assertThat(interner.intern(42, 0)).isSameAs(hot);
+    }
+
+    @Test
+    void evicts_in_each_set_in_order_of_its_own_clock_hand() {
+        // given
+        var interner = new DecimalInterner(2 * DecimalInterner.SET_SIZE); // two sets
+        long[] first = keysOfSet(0, DecimalInterner.SET_SIZE + 2);
+        long[] second = keysOfSet(1, DecimalInterner.SET_SIZE + 1);
+        BigDecimal[] firstDecimals = new BigDecimal[first.length];
+        for (int i = 0; i <= DecimalInterner.SET_SIZE; i++) {
+            firstDecimals[i] = interner.intern(first[i], 0); // the last one evicts the first one
+        }
+
+        // when
+        for (long key : second) {
+            interner.intern(key, 0); // the last one evicts in the other set
+        }
+        interner.intern(first[DecimalInterner.SET_SIZE + 1], 0);
+
+        // then
+        assertThat(interner.intern(first[2], 0)).isSameAs(firstDecimals[2]);
+        assertThat(interner.intern(first[1], 0)).isNotSameAs(firstDecimals[1]); // the next one after the first
+    }
+
+    @Test
+    void is_thread_safe() throws Exception {
+        // given
+        var interner = new DecimalInterner(64); // small, so that there is a lot of evictions
+        int numOfParallelTasks = 2 * getRuntime().availableProcessors();
+        ExecutorService executor = newFixedThreadPool(numOfParallelTasks);
+
+        // when
+        Callable<Long> task = () -> {
+            long wrongValues = 0;
+            for (int i = 0; i < 100_000; i++) {
+                long unscaledValue = i % 200;
+                int scale = i % 3;
+                if (!interner.intern(unscaledValue, scale).equals(BigDecimal.valueOf(unscaledValue, scale))) {
+                    wrongValues++;
+                }
+            }
+            return wrongValues;
+        };
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < numOfParallelTasks; i++) {
+            results.add(executor.submit(task));
+        }
+
+        // then
+        for (Future<Long> result : results) {
+            assertThat(result.get()).isZero();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Finds keys, of scale zero, that fall into given set of the interner with two sets.
+     */
+    private static long[] keysOfSet(int set, int numOfKeys) {
+        long[] keys = new long[numOfKeys];
+        int found = 0;
+        for (long key = 1000; found < numOfKeys; key++) { // not small, as BigDecimal caches those
+            if ((DecimalMath.hash(key, 0) & 1) == set) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
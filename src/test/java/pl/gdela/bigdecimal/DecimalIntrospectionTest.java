@@ -0,0 +1,39 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.function.ToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pl.gdela.bigdecimal.DecimalIntrospection.INFLATED;
+
+class DecimalIntrospectionTest {
+
+    @Test
+    void is_privileged_when_java_math_is_opened() {
+        assertThat(DecimalIntrospection.isPrivileged()).isTrue(); // see the configuration of surefire
+    }
+
+    @Test
+    void gets_unscaled_long_through_internals() {
+        verifyUnscaledLong(DecimalIntrospection::unscaledLongPrivileged);
+    }
+
+    @Test
+    void gets_unscaled_long_through_public_api() {
+        verifyUnscaledLong(DecimalIntrospection::unscaledLongPublic);
+    }
+
+    private static void verifyUnscaledLong(ToLongFunction<BigDecimal> unscaledLong) {
+        assertThat(unscaledLong.applyAsLong(new BigDecimal("123.45"))).isEqualTo(12345);
+        assertThat(unscaledLong.applyAsLong(new BigDecimal("-0.001"))).isEqualTo(-1);
+        assertThat(unscaledLong.applyAsLong(new BigDecimal("1E+3"))).isEqualTo(1);
+        assertThat(unscaledLong.applyAsLong(BigDecimal.ZERO)).isEqualTo(0);
+        assertThat(unscaledLong.applyAsLong(BigDecimal.valueOf(Long.MAX_VALUE, 2))).isEqualTo(Long.MAX_VALUE);
+        assertThat(unscaledLong.applyAsLong(new BigDecimal(BigInteger.valueOf(42), 1))).isEqualTo(42); // keeps BigInteger
+        assertThat(unscaledLong.applyAsLong(BigDecimal.valueOf(Long.MAX_VALUE, 2).add(BigDecimal.ONE))).isEqualTo(INFLATED);
+        assertThat(unscaledLong.applyAsLong(BigDecimal.valueOf(Long.MIN_VALUE, 2))).isEqualTo(INFLATED); // ambiguous
+    }
+}
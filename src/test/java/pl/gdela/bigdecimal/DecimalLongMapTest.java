@@ -0,0 +1,78 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecimalLongMapTest {
+
+    @Test
+    void treats_equal_decimals_of_different_scales_as_same_key() {
+        // given
+        var map = new DecimalLongMap();
+
+        // when
+        map.put(new BigDecimal("1.0"), 10);
+        map.merge(new BigDecimal("1.00"), 5, Long::sum);
+        map.merge(1, 0, 1, Long::sum);
+        map.put(new BigDecimal("0.00"), 7);
+        map.put(new BigDecimal("1E+3"), 3);
+
+        // then
+        assertThat(map.size()).isEqualTo(3);
+        assertThat(map.getOrDefault(BigDecimal.ONE, -1)).isEqualTo(16);
+        assertThat(map.getOrDefault(BigDecimal.ZERO, -1)).isEqualTo(7);
+        assertThat(map.getOrDefault(1000, 0, -1)).isEqualTo(3);
+        assertThat(map.getOrDefault(new BigDecimal("1000.000"), -1)).isEqualTo(3);
+        assertThat(map.getOrDefault(new BigDecimal("1.01"), -1)).isEqualTo(-1);
+    }
+
+    @Test
+    void keeps_keys_too_big_for_long_in_side_map() {
+        // given
+        var map = new DecimalLongMap();
+        BigDecimal huge = new BigDecimal(BigInteger.TWO.pow(100), 2);
+        BigDecimal hugeButStrippable = new BigDecimal(BigInteger.TEN.pow(30), 0); // same as 1E+30
+
+        // when
+        map.put(huge, 1);
+        map.merge(huge.setScale(4), 1, Long::sum);
+        map.put(hugeButStrippable, 2);
+
+        // then
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.getOrDefault(huge, -1)).isEqualTo(2);
+        assertThat(map.getOrDefault(new BigDecimal("1E+30"), -1)).isEqualTo(2);
+        Map<BigDecimal, Long> inflated = new HashMap<>();
+        map.forEachInflated(inflated::put);
+        assertThat(inflated).containsOnlyKeys(huge.stripTrailingZeros());
+    }
+
+    @Test
+    void accumulates_same_as_hash_map() {
+        // given
+        var map = new DecimalLongMap();
+        Map<BigDecimal, Long> expected = new HashMap<>();
+        Random random = new Random(0);
+
+        // when
+        for (int i = 0; i < 100_000; i++) {
+            long unscaledKey = random.nextInt(20_000) - 10_000;
+            long value = random.nextInt(100);
+            map.merge(unscaledKey, 2, value, Long::sum);
+            expected.merge(BigDecimal.valueOf(unscaledKey, 2).stripTrailingZeros(), value, Long::sum);
+        }
+
+        // then
+        Map<BigDecimal, Long> actual = new HashMap<>();
+        map.forEach((unscaledKey, scale, value) -> actual.put(BigDecimal.valueOf(unscaledKey, scale), value));
+        assertThat(map.size()).isEqualTo(expected.size());
+        assertThat(actual).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,107 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecimalRadixSortTest {
+
+    @Test
+    void sorts_by_numerical_value() {
+        // given
+        var column = DecimalColumn.of(
+                new BigDecimal("3.5"), new BigDecimal("-1"), new BigDecimal("0.001"), new BigDecimal("-1.25"),
+                new BigDecimal("0"), new BigDecimal("1E+3"), new BigDecimal("-0.5"));
+
+        // when
+        DecimalRadixSort.sort(column);
+
+        // then
+        assertThat(decimals(column)).containsExactly(
+                new BigDecimal("-1.25"), new BigDecimal("-1"), new BigDecimal("-0.5"), new BigDecimal("0"),
+                new BigDecimal("0.001"), new BigDecimal("3.5"), new BigDecimal("1E+3"));
+    }
+
+    @Test
+    void keeps_order_of_equal_decimals() {
+        // given
+        var column = DecimalColumn.of(
+                new BigDecimal("1.00"), new BigDecimal("2"), new BigDecimal("1.0"), new BigDecimal("0.5"), new BigDecimal("1"));
+
+        // when
+        int[] permutation = DecimalRadixSort.argsort(column);
+
+        // then
+        assertThat(permutation).containsExactly(3, 0, 2, 4, 1);
+        assertThat(column.get(0)).isEqualTo(new BigDecimal("1.00")); // not changed
+    }
+
+    @Test
+    void sorts_decimals_not_fitting_in_long_after_rescaling() {
+        // given
+        var column = DecimalColumn.of(
+                BigDecimal.valueOf(Long.MAX_VALUE, 0), new BigDecimal("0.000001"), BigDecimal.valueOf(Long.MIN_VALUE, 0),
+                new BigDecimal("5"), BigDecimal.valueOf(Long.MAX_VALUE - 1, 0), new BigDecimal("-7"));
+
+        // when
+        DecimalRadixSort.sort(column);
+
+        // then
+        assertThat(decimals(column)).containsExactly(
+                BigDecimal.valueOf(Long.MIN_VALUE, 0), new BigDecimal("-7"), new BigDecimal("0.000001"),
+                new BigDecimal("5"), BigDecimal.valueOf(Long.MAX_VALUE - 1, 0), BigDecimal.valueOf(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    void sorts_column_with_outlier_of_high_scale() {
+        // given
+        Random random = new Random(0);
+        BigDecimal[] decimals = new BigDecimal[3000];
+        for (int i = 0; i < decimals.length; i++) {
+            decimals[i] = BigDecimal.valueOf(random.nextInt(2001) - 1000, 2);
+        }
+        decimals[1000] = BigDecimal.valueOf(123, 30);
+        decimals[2000] = BigDecimal.valueOf(100_000_000_000_000_000L, 19); // 0.01, equal to some of scale 2
+        var column = DecimalColumn.of(decimals);
+
+        // when
+        int commonScale = DecimalRadixSort.commonScale(column.scales());
+        DecimalRadixSort.sort(column);
+
+        // then
+        assertThat(commonScale).isEqualTo(2); // so only the outliers are sorted as overflows
+        Arrays.sort(decimals); // stable, so equal ones are in the same order as well
+        assertThat(decimals(column)).isEqualTo(decimals);
+    }
+
+    @Test
+    void sorts_many_chunks_in_parallel_same_as_arrays_sort() {
+        // given
+        Random random = new Random(0);
+        BigDecimal[] decimals = new BigDecimal[5 * DecimalRadixSort.CHUNK_SIZE + 123];
+        for (int i = 0; i < decimals.length; i++) {
+            decimals[i] = BigDecimal.valueOf(random.nextLong() >> (16 + random.nextInt(48)), random.nextInt(5));
+        }
+        var column = DecimalColumn.of(decimals);
+
+        // when
+        DecimalRadixSort.sort(column, new ForkJoinPool(4));
+
+        // then
+        Arrays.sort(decimals); // stable, so equal ones are in the same order as well
+        assertThat(decimals(column)).isEqualTo(decimals);
+    }
+
+    private static BigDecimal[] decimals(DecimalColumn column) {
+        BigDecimal[] decimals = new BigDecimal[column.size()];
+        for (int i = 0; i < column.size(); i++) {
+            decimals[i] = column.get(i);
+        }
+        return decimals;
+    }
+}
@@ -0,0 +1,129 @@
+package pl.gdela.bigdecimal;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackedDecimalBlockTest {
+
+    @Test
+    void packs_ticks_in_few_bits() {
+        // given
+        var column = DecimalColumn.of(
+                new BigDecimal("100.0500"), new BigDecimal("100.0503"), new BigDecimal("100.0501"),
+                new BigDecimal("100.05"), new BigDecimal("100.0497"), new BigDecimal("100.0500"));
+
+        // when
+        var block = PackedDecimalBlock.encode(column, 0, column.size());
+
+        // then
+        assertThat(block.bitWidth()).isEqualTo(3); // the biggest difference is -3, zig-zag encoded as 5
+        assertThat(block.scale()).isEqualTo(4);
+        assertThat(block.toDecimals()).containsExactly(
+                new BigDecimal("100.0500"), new BigDecimal("100.0503"), new BigDecimal("100.0501"),
+                new BigDecimal("100.0500"), new BigDecimal("100.0497"), new BigDecimal("100.0500"));
+        assertThat(block.min()).isEqualTo(new BigDecimal("100.0497"));
+        assertThat(block.max()).isEqualTo(new BigDecimal("100.0503"));
+        assertThat(block.sum()).isEqualTo(new BigDecimal("600.3001"));
+    }
+
+    @Test
+    void round_trips_random_walk_through_buffer() {
+        // given
+        Random random = new Random(0);
+        long[] unscaledValues = new long[10_000];
+        long price = 1_000_000;
+        for (int i = 0; i < unscaledValues.length; i++) {
+            price += random.nextInt(21) - 10;
+            unscaledValues[i] = price;
+        }
+        var column = new DecimalColumn(unscaledValues, new int[unscaledValues.length]);
+
+        // when
+        PackedDecimalBlock[] blocks = PackedDecimalBlock.encode(column, 1024);
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(blocks).mapToInt(PackedDecimalBlock::sizeInBytes).sum());
+        for (PackedDecimalBlock block : blocks) {
+            block.writeTo(buffer);
+        }
+        buffer.flip();
+
+        // then
+        long[] decoded = new long[1024];
+        for (int i = 0; i < blocks.length; i++) {
+            var block = PackedDecimalBlock.readFrom(buffer);
+            block.decode(decoded);
+            long expectedSum = 0;
+            for (int j = 0; j < block.size(); j++) {
+                assertThat(decoded[j]).isEqualTo(unscaledValues[i * 1024 + j]);
+                expectedSum += decoded[j];
+            }
+            assertThat(block.bitWidth()).isEqualTo(5);
+            assertThat(block.sumUnscaled()).isEqualTo(expectedSum);
+        }
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void round_trips_extreme_differences() {
+        // given
+        long[] unscaledValues = { Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, Long.MAX_VALUE, 1 };
+        var column = new DecimalColumn(unscaledValues, new int[unscaledValues.length]);
+
+        // when
+        var block = PackedDecimalBlock.encode(column, 0, unscaledValues.length);
+        long[] decoded = new long[unscaledValues.length];
+        block.decode(decoded);
+
+        // then
+        assertThat(block.bitWidth()).isEqualTo(64);
+        assertThat(decoded).containsExactly(unscaledValues);
+        assertThat(block.min()).isEqualTo(BigDecimal.valueOf(Long.MIN_VALUE));
+        assertThat(block.max()).isEqualTo(BigDecimal.valueOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void packs_constant_column_in_no_bits() {
+        // given
+        var column = DecimalColumn.of(
+                new BigDecimal("42.10"), new BigDecimal("42.10"), new BigDecimal("42.1"), new BigDecimal("42.10"));
+
+        // when
+        var block = roundTripped(PackedDecimalBlock.encode(column, 0, column.size()));
+
+        // then
+        assertThat(block.bitWidth()).isZero();
+        assertThat(block.toDecimals()).containsOnly(new BigDecimal("42.10")).hasSize(4);
+        assertThat(block.sum()).isEqualTo(new BigDecimal("168.40"));
+        assertThat(block.min()).isEqualTo(new BigDecimal("42.10"));
+        assertThat(block.max()).isEqualTo(new BigDecimal("42.10"));
+    }
+
+    @Test
+    void packs_single_value() {
+        // given
+        var column = DecimalColumn.of(new BigDecimal("-7.5"));
+
+        // when
+        var block = roundTripped(PackedDecimalBlock.encode(column, 0, column.size()));
+        long[] decoded = new long[1];
+        block.decode(decoded);
+
+        // then
+        assertThat(block.bitWidth()).isZero();
+        assertThat(decoded).containsExactly(-75);
+        assertThat(block.toDecimals()).containsExactly(new BigDecimal("-7.5"));
+        assertThat(block.sum()).isEqualTo(new BigDecimal("-7.5"));
+    }
+
+    private static PackedDecimalBlock roundTripped(PackedDecimalBlock block) {
+        ByteBuffer buffer = ByteBuffer.allocate(block.sizeInBytes());
+        block.writeTo(buffer);
+        buffer.flip();
+        return PackedDecimalBlock.readFrom(buffer);
+    }
+}